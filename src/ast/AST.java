@@ -1,25 +1,106 @@
 package ast;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Stack;
 
 import csem.Beta;
 import csem.Delta;
+import scanner.SymbolTable;
 
 /*
  * Create the Abstract Syntax Tree; The nodes use a first-child
  * next-sibling representation.
+ * The nodes are kept in a NodePool and referred to by their handles. They only become ASTNode
+ * objects when createDeltas() hands them to the CSE machine.
  */
 public class AST{
-  private ASTNode root;
+  private NodePool pool;
+  private int root;
   private ArrayDeque<PendingDeltaBody> pendingDeltaBodyQueue;
   private boolean standardized;
   private Delta currentDelta;
   private Delta rootDelta;
   private int deltaIndex;
+  private ASTNode[] deltaBodyNodes; //deltaBodyNodes[node] is the ASTNode createDeltas() made for node
+
+  public AST(NodePool pool, int root){
+    this.pool = pool;
+    this.root = root;
+  }
+
+  /**
+   * A tree the parser standardized while building it (see Parser.buildStandardizedAST()).
+   */
+  public AST(NodePool pool, int root, boolean standardized){
+    this(pool, root);
+    this.standardized = standardized;
+  }
 
   public AST(ASTNode node){
-    this.root = node;
+    /*
+     * Copies a tree of ASTNode objects into a new pool.
+     */
+    this.pool = new NodePool();
+    this.root = importNode(node);
+    ArrayDeque<ASTNode> pendingNodes = new ArrayDeque<ASTNode>(); //nodes whose children and siblings are not copied yet
+    ArrayDeque<Integer> pendingHandles = new ArrayDeque<Integer>();
+    pendingNodes.push(node);
+    pendingHandles.push(root);
+    while(!pendingNodes.isEmpty()){
+      ASTNode astNode = pendingNodes.pop();
+      int handle = pendingHandles.pop();
+      if(astNode.getChild()!=null){
+        int child = importNode(astNode.getChild());
+        pool.setChild(handle, child);
+        pendingNodes.push(astNode.getChild());
+        pendingHandles.push(child);
+      }
+      if(astNode.getSibling()!=null){
+        int sibling = importNode(astNode.getSibling());
+        pool.setSibling(handle, sibling);
+        pendingNodes.push(astNode.getSibling());
+        pendingHandles.push(sibling);
+      }
+    }
+  }
+
+  private int importNode(ASTNode node){
+    int value = SymbolTable.NONE;
+    if(node.getValue()!=null){
+      switch(node.getType()){ //the nodes the parser gives a symbol; any other text is a literal
+        case IDENTIFIER:
+        case TRUE:
+        case FALSE:
+        case NIL:
+        case DUMMY:
+          value = SymbolTable.intern(node.getValue());
+          break;
+        default:
+          value = pool.addLiteral(node.getValue());
+          break;
+      }
+    }
+    return pool.newNode(node.getType(), value, node.getSourceLineNumber());
+  }
+
+  public NodePool getPool(){
+    return pool;
+  }
+
+  public int getRoot(){
+    return root;
+  }
+
+  /**
+   * Returns a copy of this tree that can be standardized without changing this one.
+   */
+  public AST copy(){
+    AST copy = new AST(pool.copy(), root);
+    copy.standardized = standardized;
+    return copy;
   }
 
   /**
@@ -29,255 +110,65 @@ public class AST{
     preOrderPrint(root,"");
   }
 
-  private void preOrderPrint(ASTNode node, String printPrefix){
-    if(node==null)
+  private void preOrderPrint(int node, String printPrefix){
+    if(node==NodePool.NULL)
       return;                              //If the current node is null, nothing to print
 
     printASTNodeDetails(node, printPrefix);                    
-    preOrderPrint(node.getChild(),printPrefix+".");           //recursively call the child node of the current node
-    preOrderPrint(node.getSibling(),printPrefix);            //recusively call the nodes in same level
+    preOrderPrint(pool.getChild(node),printPrefix+".");           //recursively call the child node of the current node
+    preOrderPrint(pool.getSibling(node),printPrefix);            //recusively call the nodes in same level
   }
 
-  private void printASTNodeDetails(ASTNode node, String printPrefix){
+  private void printASTNodeDetails(int node, String printPrefix){
+    ASTNodeType type = pool.getType(node);
     //If the node is an IDENTIFIER or an INTEGER, it prints the node's type followed by its value
-    if(node.getType() == ASTNodeType.IDENTIFIER ||
-        node.getType() == ASTNodeType.INTEGER){
-      System.out.printf(printPrefix+node.getType().getPrintName()+"\n",node.getValue());
+    if(type == ASTNodeType.IDENTIFIER ||
+        type == ASTNodeType.INTEGER){
+      System.out.printf(printPrefix+type.getPrintName()+"\n",pool.getValueName(node));
     }
 
     //If the node is a STRING, prints the node's type followed by its value
-    else if(node.getType() == ASTNodeType.STRING)
-      System.out.printf(printPrefix+node.getType().getPrintName()+"\n",node.getValue());
+    else if(type == ASTNodeType.STRING)
+      System.out.printf(printPrefix+type.getPrintName()+"\n",pool.getValueName(node));
     else
 
     //For any other node type, simply prints the node's type.
-      System.out.println(printPrefix+node.getType().getPrintName());
+      System.out.println(printPrefix+type.getPrintName());
   }
 
   /**
    * Standardize this Abstract syntax tree
    */
   public void standardize(){
-    standardize(root);
-    standardized = true;
-  }
-
-  /**
-   * Recursive function that standardizes the AST by processing its nodes in a bottom-up manner
-   */
-  private void standardize(ASTNode node){
-    if(node.getChild()!=null){
-      ASTNode childNode = node.getChild();
-      while(childNode!=null){     //If the node has a child, it enters a loop to process each child node
-        standardize(childNode);
-        childNode = childNode.getSibling();
-      }
-    }
-
-    //all children standardized. now standardize this node
-    switch(node.getType()){
-      case LET:                   //standerdizing the LET node
-
-        //       LET              GAMMA
-        //     /     \           /     \
-        //    EQUAL   P   ->   LAMBDA   E
-        //   /   \             /    \
-        //  X     E           X      P
-
-        ASTNode equalNode = node.getChild();
-        if(equalNode.getType()!=ASTNodeType.EQUAL)
-          throw new StandardizeException("LET/WHERE: left child is not EQUAL"); //done for safety reasons
-        ASTNode e = equalNode.getChild().getSibling();
-        equalNode.getChild().setSibling(equalNode.getSibling());
-        equalNode.setSibling(e);
-        equalNode.setType(ASTNodeType.LAMBDA);
-        node.setType(ASTNodeType.GAMMA);
-        break;
-
-      case WHERE:
-        //make this is a LET node and standardize that
-        //       WHERE               LET
-        //       /   \             /     \
-        //      P    EQUAL   ->  EQUAL   P
-        //           /   \       /   \
-        //          X     E     X     E
-        equalNode = node.getChild().getSibling();
-        node.getChild().setSibling(null);
-        equalNode.setSibling(node.getChild());
-        node.setChild(equalNode);
-        node.setType(ASTNodeType.LET);
-        standardize(node);
-        break;
-      
-      case FCNFORM:              //standerdize the function forms
-        //       FCN_FORM                EQUAL
-        //       /   |   \              /    \
-        //      P    V+   E    ->      P     +LAMBDA
-        //                                    /     \
-        //                                    V     .E
-        ASTNode childSibling = node.getChild().getSibling();
-        node.getChild().setSibling(constructLambdaChain(childSibling));
-        node.setType(ASTNodeType.EQUAL);
-        break;
-
-      case AT:         //standerdize the AT node
-        //         AT              GAMMA
-        //       / | \    ->       /    \
-        //      E1 N E2          GAMMA   E2
-        //                       /    \
-        //                      N     E1
-        ASTNode e1 = node.getChild();
-        ASTNode n = e1.getSibling();
-        ASTNode e2 = n.getSibling();
-        ASTNode gammaNode = new ASTNode();
-        gammaNode.setType(ASTNodeType.GAMMA);
-        gammaNode.setChild(n);
-        n.setSibling(e1);
-        e1.setSibling(null);
-        gammaNode.setSibling(e2);
-        node.setChild(gammaNode);
-        node.setType(ASTNodeType.GAMMA);
-        break;
-
-      case WITHIN:          //standerdise the WITHIN node
-        //           WITHIN                  EQUAL
-        //          /      \                /     \
-        //        EQUAL   EQUAL    ->      X2     GAMMA
-        //       /    \   /    \                  /    \
-        //      X1    E1 X2    E2               LAMBDA  E1
-        //                                      /    \
-        //                                     X1    E2
-        if(node.getChild().getType()!=ASTNodeType.EQUAL || node.getChild().getSibling().getType()!=ASTNodeType.EQUAL)
-          throw new StandardizeException("WITHIN: one of the children is not EQUAL"); //done for safety reasons
-        ASTNode x1 = node.getChild().getChild();
-        e1 = x1.getSibling();
-        ASTNode x2 = node.getChild().getSibling().getChild();
-        e2 = x2.getSibling();
-        ASTNode lambdaNode = new ASTNode();
-        lambdaNode.setType(ASTNodeType.LAMBDA);
-        x1.setSibling(e2);
-        lambdaNode.setChild(x1);
-        lambdaNode.setSibling(e1);
-        gammaNode = new ASTNode();
-        gammaNode.setType(ASTNodeType.GAMMA);
-        gammaNode.setChild(lambdaNode);
-        x2.setSibling(gammaNode);
-        node.setChild(x2);
-        node.setType(ASTNodeType.EQUAL);
-        break;
-      
-      case SIMULTDEF:
-        //         SIMULTDEF            EQUAL
-        //             |               /     \
-        //           EQUAL++  ->     COMMA   TAU
-        //           /   \             |      |
-        //          X     E           X++    E++
-        ASTNode commaNode = new ASTNode();
-        commaNode.setType(ASTNodeType.COMMA);
-        ASTNode tauNode = new ASTNode();
-        tauNode.setType(ASTNodeType.TAU);
-        ASTNode childNode = node.getChild();
-        while(childNode!=null){
-          populateCommaAndTauNode(childNode, commaNode, tauNode);
-          childNode = childNode.getSibling();
+    /*
+     * Standardizes the nodes bottom-up: a post-order traversal with an explicit stack, so that
+     * deeply nested programs do not overflow the thread stack. nextChildren[i] is the child of
+     * pendingNodes[i] to standardize next.
+     */
+    Standardizer standardizer = new Standardizer(pool);
+    int[] pendingNodes = new int[64];
+    int[] nextChildren = new int[64];
+    int depth = 0;
+    pendingNodes[depth] = root;
+    nextChildren[depth++] = pool.getChild(root);
+    while(depth>0){
+      int childNode = nextChildren[depth-1];
+      if(childNode!=NodePool.NULL){
+        if(depth==pendingNodes.length){
+          pendingNodes = Arrays.copyOf(pendingNodes, depth*2);
+          nextChildren = Arrays.copyOf(nextChildren, depth*2);
         }
-        commaNode.setSibling(tauNode);
-        node.setChild(commaNode);
-        node.setType(ASTNodeType.EQUAL);
-        break;
-      
-      case REC:
-        //        REC                 EQUAL
-        //         |                 /     \
-        //       EQUAL     ->       X     GAMMA
-        //      /     \                   /    \
-        //     X       E                YSTAR  LAMBDA
-        //                                     /     \
-        //                                    X       E
-        childNode = node.getChild();
-        if(childNode.getType()!=ASTNodeType.EQUAL)
-          throw new StandardizeException("REC: child is not EQUAL"); //done for  safety reasons
-        ASTNode x = childNode.getChild();
-        lambdaNode = new ASTNode();
-        lambdaNode.setType(ASTNodeType.LAMBDA);
-        lambdaNode.setChild(x); //x is already attached to e
-        ASTNode yStarNode = new ASTNode();
-        yStarNode.setType(ASTNodeType.YSTAR);
-        yStarNode.setSibling(lambdaNode);
-        gammaNode = new ASTNode();
-        gammaNode.setType(ASTNodeType.GAMMA);
-        gammaNode.setChild(yStarNode);
-        ASTNode xWithSiblingGamma = new ASTNode(); //same as x except the sibling is not e but gamma
-        xWithSiblingGamma.setChild(x.getChild());
-        xWithSiblingGamma.setSibling(gammaNode);
-        xWithSiblingGamma.setType(x.getType());
-        xWithSiblingGamma.setValue(x.getValue());
-        node.setChild(xWithSiblingGamma);
-        node.setType(ASTNodeType.EQUAL);
-        break;
-      case LAMBDA:
-        //     LAMBDA        LAMBDA
-        //      /   \   ->   /    \
-        //     V++   E      V     .E
-        childSibling = node.getChild().getSibling();
-        node.getChild().setSibling(constructLambdaChain(childSibling));
-        break;
-      default:
-        //Following nodes we do not standerdize accourding to CSE optimization Rule 6 (binops)
-        // OR , AND, PLUS, MINUS, MULT, DIV, EXP, GR, GE, LS, LE, EQ, NE
-        
-        // Following nodes we do not standerdize accourding to CSE Optimization Rule 7 (unops)
-        // NOT, NEG
-        
-        // Following node we do not standerdize accourding to CSE Optimization Rule 8 (conditionals)
-        // CONDITIONAL
-        
-        // Following node we do not standerdize accourding to CSE Optimization Rule 9, 10 (tuples)
-        // TAU
-
-        // Following node we do not standerdize accourding to CSE Optimization Rule 11 (n-ary functions)
-        // COMMA
-        break;
-    }
-  }
-
-  private void populateCommaAndTauNode(ASTNode equalNode, ASTNode commaNode, ASTNode tauNode){
-    if(equalNode.getType()!=ASTNodeType.EQUAL)
-      throw new StandardizeException("SIMULTDEF: one of the children is not EQUAL"); //done for safety reasons
-    ASTNode x = equalNode.getChild();
-    ASTNode e = x.getSibling();
-    setChild(commaNode, x);
-    setChild(tauNode, e);
-  }
-
-  /**
-   * Either creates a new child of the parent or attaches the child node passed in
-   * as the last sibling of the parent's existing children 
-   * @param parentNode
-   * @param childNode
-   */
-  private void setChild(ASTNode parentNode, ASTNode childNode){
-    if(parentNode.getChild()==null)
-      parentNode.setChild(childNode);
-    else{
-      ASTNode lastSibling = parentNode.getChild();
-      while(lastSibling.getSibling()!=null)
-        lastSibling = lastSibling.getSibling();
-      lastSibling.setSibling(childNode);
+        pendingNodes[depth] = childNode;
+        nextChildren[depth++] = pool.getChild(childNode);
+      }
+      else{
+        int node = pendingNodes[--depth];
+        standardizer.standardizeNode(node); //all children standardized. now standardize this node
+        if(depth>0)
+          nextChildren[depth-1] = pool.getSibling(node);
+      }
     }
-    childNode.setSibling(null);
-  }
-
-  private ASTNode constructLambdaChain(ASTNode node){
-    if(node.getSibling()==null)
-      return node;
-    
-    ASTNode lambdaNode = new ASTNode();
-    lambdaNode.setType(ASTNodeType.LAMBDA);
-    lambdaNode.setChild(node);
-    if(node.getSibling().getSibling()!=null)
-      node.setSibling(constructLambdaChain(node.getSibling()));
-    return lambdaNode;
+    standardized = true;
   }
 
   /**
@@ -285,14 +176,54 @@ public class AST{
    * @return the first delta structure (&delta;0)
    */
   public Delta createDeltas(){
+    createDeltaBodyNodes();
     pendingDeltaBodyQueue = new ArrayDeque<PendingDeltaBody>();
     deltaIndex = 0;
     currentDelta = createDelta(root);
     processPendingDeltaStack();
+    deltaBodyNodes = null;
     return rootDelta;
   }
 
-  private Delta createDelta(ASTNode startBodyNode){
+  private void createDeltaBodyNodes(){
+    /*
+     * Makes an ASTNode for every node of the tree, linked to the others the same way the nodes
+     * are in the pool. Delta bodies hold these objects, and the CSE machine counts a tuple's
+     * elements by walking the children of its TAU node.
+     */
+    deltaBodyNodes = new ASTNode[pool.size()];
+    int[] pendingNodes = new int[16]; //nodes whose child and sibling are not linked yet
+    int pendingCount = 0;
+    deltaBodyNodes[root] = createDeltaBodyNode(root);
+    pendingNodes[pendingCount++] = root;
+    while(pendingCount>0){
+      int node = pendingNodes[--pendingCount];
+      if(pendingCount+2>pendingNodes.length)
+        pendingNodes = Arrays.copyOf(pendingNodes, pendingNodes.length*2);
+      int child = pool.getChild(node);
+      if(child!=NodePool.NULL){
+        if(deltaBodyNodes[child]==null){
+          deltaBodyNodes[child] = createDeltaBodyNode(child);
+          pendingNodes[pendingCount++] = child;
+        }
+        deltaBodyNodes[node].setChild(deltaBodyNodes[child]);
+      }
+      int sibling = pool.getSibling(node);
+      if(sibling!=NodePool.NULL){
+        if(deltaBodyNodes[sibling]==null){
+          deltaBodyNodes[sibling] = createDeltaBodyNode(sibling);
+          pendingNodes[pendingCount++] = sibling;
+        }
+        deltaBodyNodes[node].setSibling(deltaBodyNodes[sibling]);
+      }
+    }
+  }
+
+  private ASTNode createDeltaBodyNode(int node){
+    return pool.toASTNode(node, Delta.createBodyNode(pool.getType(node), pool.getValueName(node)));
+  }
+
+  private Delta createDelta(int startBodyNode){
     //create a new delta structure and add it to the current delta's body.
     PendingDeltaBody pendingDelta = new PendingDeltaBody();
     pendingDelta.startNode = startBodyNode;
@@ -318,57 +249,80 @@ public class AST{
     }
   }
   
-  private void buildDeltaBody(ASTNode node, Stack<ASTNode> body){
+  private void buildDeltaBody(int startNode, Stack<ASTNode> startBody){
     /*
-     * if we encounter a delta,create a new delta and add it to the current delta's body. 
+     * A pre-order traversal with an explicit stack, so that deeply nested programs do not
+     * overflow the thread stack. pendingNodes[i] is a node still to visit, and pendingBodies[i]
+     * the body it goes into. Nodes are visited in the order a recursive pre-order walk would
+     * visit them, so the deltas get the same indices.
      */
-    if(node.getType()==ASTNodeType.LAMBDA){ //create a new delta
-      Delta d = createDelta(node.getChild().getSibling()); //the new delta's body starts at the right child of the lambda
-      if(node.getChild().getType()==ASTNodeType.COMMA){ //the left child of the lambda is the bound variable
-        ASTNode commaNode = node.getChild();
-        ASTNode childNode = commaNode.getChild();
-        while(childNode!=null){
-          d.addBoundVars(childNode.getValue());
-          childNode = childNode.getSibling();
+    int[] pendingNodes = new int[16];
+    List<Stack<ASTNode>> pendingBodies = new ArrayList<Stack<ASTNode>>();
+    int pendingCount = 0;
+    pendingNodes[pendingCount++] = startNode;
+    pendingBodies.add(startBody);
+    while(pendingCount>0){
+      int node = pendingNodes[--pendingCount];
+      Stack<ASTNode> body = pendingBodies.remove(pendingCount);
+      if(pool.getType(node)==ASTNodeType.LAMBDA){ //create a new delta
+        Delta d = createDelta(pool.getSibling(pool.getChild(node))); //the new delta's body starts at the right child of the lambda
+        if(pool.getType(pool.getChild(node))==ASTNodeType.COMMA){ //the left child of the lambda is the bound variable
+          int commaNode = pool.getChild(node);
+          int childNode = pool.getChild(commaNode);
+          while(childNode!=NodePool.NULL){
+            d.addBoundVars(pool.getValueName(childNode));
+            childNode = pool.getSibling(childNode);
+          }
         }
+        else
+          d.addBoundVars(pool.getValueName(pool.getChild(node)));
+        body.push(d); //add this new delta to the existing delta's body
+        continue;
       }
-      else
-        d.addBoundVars(node.getChild().getValue());
-      body.push(d); //add this new delta to the existing delta's body
-      return;
-    }
-    else if(node.getType()==ASTNodeType.CONDITIONAL){
-      //to enable programming order evaluation, traverse the children in reverse order so the condition leads
-      // cond -> then else becomes then else Beta cond
-      ASTNode conditionNode = node.getChild();
-      ASTNode thenNode = conditionNode.getSibling();
-      ASTNode elseNode = thenNode.getSibling();
-      
-      //Add a Beta node.
-      Beta betaNode = new Beta();
-      
-      buildDeltaBody(thenNode, betaNode.getThenBody());
-      buildDeltaBody(elseNode, betaNode.getElseBody());
-      
-      body.push(betaNode);
-      
-      buildDeltaBody(conditionNode, body);
-      
-      return;
-    }
-    
-    //preOrder traversal
-    body.push(node);
-    ASTNode childNode = node.getChild();
-    while(childNode!=null){
-      buildDeltaBody(childNode, body);
-      childNode = childNode.getSibling();
+
+      if(pendingCount+3>pendingNodes.length)
+        pendingNodes = Arrays.copyOf(pendingNodes, Math.max(pendingNodes.length*2, pendingCount+3));
+      if(pool.getType(node)==ASTNodeType.CONDITIONAL){
+        //to enable programming order evaluation, traverse the children in reverse order so the condition leads
+        // cond -> then else becomes then else Beta cond
+        int conditionNode = pool.getChild(node);
+        int thenNode = pool.getSibling(conditionNode);
+        int elseNode = pool.getSibling(thenNode);
+
+        //Add a Beta node. Nothing else goes into body before the condition, so the Beta can be
+        //pushed now; the then and else parts go into its own bodies.
+        Beta betaNode = new Beta();
+        body.push(betaNode);
+
+        //visited in the order then, else, condition
+        pendingNodes[pendingCount++] = conditionNode;
+        pendingBodies.add(body);
+        pendingNodes[pendingCount++] = elseNode;
+        pendingBodies.add(betaNode.getElseBody());
+        pendingNodes[pendingCount++] = thenNode;
+        pendingBodies.add(betaNode.getThenBody());
+        continue;
+      }
+
+      //preOrder traversal: the children are pushed last to first, so the first is visited next
+      body.push(deltaBodyNodes[node]);
+      int childCount = 0;
+      for(int childNode = pool.getChild(node);childNode!=NodePool.NULL;childNode = pool.getSibling(childNode))
+        childCount++;
+      if(pendingCount+childCount>pendingNodes.length)
+        pendingNodes = Arrays.copyOf(pendingNodes, Math.max(pendingNodes.length*2, pendingCount+childCount));
+      int childIndex = pendingCount+childCount;
+      for(int childNode = pool.getChild(node);childNode!=NodePool.NULL;childNode = pool.getSibling(childNode))
+        pendingNodes[--childIndex] = childNode;
+      for(int i=0;i<childCount;++i)
+        pendingBodies.add(body);
+      pendingCount += childCount;
     }
   }
 
   private class PendingDeltaBody{
     Stack<ASTNode> body;
-    ASTNode startNode;
+    int startNode;
   }
 
   public boolean isStandardized(){
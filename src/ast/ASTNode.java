@@ -1,13 +1,12 @@
 package ast;
 
-import csem.NodeCopier;
-
 /**
  * Abstract Syntax Tree node. Uses a first-child, next-sibling representation.
  */
 public class ASTNode{
   private ASTNodeType type;
   private String value;
+  private int symbol; //SymbolTable id of an identifier's name, for comparing names by identity
   private ASTNode child;
   private ASTNode sibling;
   private int sourceLineNumber;
@@ -48,8 +47,12 @@ public class ASTNode{
     this.value = value;
   }
 
-  public ASTNode accept(NodeCopier nodeCopier){
-    return nodeCopier.copy(this);
+  public int getSymbol(){
+    return symbol;
+  }
+
+  public void setSymbol(int symbol){
+    this.symbol = symbol;
   }
 
   public int getSourceLineNumber(){
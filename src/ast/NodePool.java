@@ -0,0 +1,172 @@
+package ast;
+
+import java.util.Arrays;
+
+import scanner.SymbolTable;
+
+/**
+ * Stores the nodes of an abstract syntax tree in parallel primitive arrays instead of one
+ * ASTNode object per node. A node is referred to by its index in the arrays (its handle), and
+ * uses the same first-child, next-sibling representation as ASTNode, with {@link #NULL} for
+ * "no node".
+ *
+ * A node's value is the SymbolTable id of its text (an identifier's name), or SymbolTable.NONE
+ * if it has none, so a node takes 17 bytes and no other objects. The text of integer and string
+ * literals is kept by the pool itself rather than interned, since the SymbolTable is shared by
+ * the whole process and never shrinks: a literal node's value is a negative index into the
+ * pool's literals (see {@link #addLiteral}), which go away with the pool.
+ */
+public class NodePool{
+  public static final int NULL = -1;
+
+  private static final ASTNodeType[] nodeTypes = ASTNodeType.values();
+
+  private byte[] types; //ASTNodeType ordinal
+  private int[] values;
+  private int[] children;
+  private int[] siblings;
+  private int[] lines;
+  private int size;
+  private String[] literals; //literals[i] is the text of the nodes whose value is -(i+1)
+  private int literalCount;
+
+  public NodePool(){
+    this(64);
+  }
+
+  public NodePool(int capacity){
+    capacity = Math.max(capacity, 16);
+    types = new byte[capacity];
+    values = new int[capacity];
+    children = new int[capacity];
+    siblings = new int[capacity];
+    lines = new int[capacity];
+    literals = new String[16];
+  }
+
+  private NodePool(NodePool other){
+    int capacity = Math.max(other.size, 16);
+    types = Arrays.copyOf(other.types, capacity);
+    values = Arrays.copyOf(other.values, capacity);
+    children = Arrays.copyOf(other.children, capacity);
+    siblings = Arrays.copyOf(other.siblings, capacity);
+    lines = Arrays.copyOf(other.lines, capacity);
+    size = other.size;
+    literals = Arrays.copyOf(other.literals, Math.max(other.literalCount, 16));
+    literalCount = other.literalCount;
+  }
+
+  /**
+   * Returns a copy of this pool, with every node at the same handle.
+   */
+  public NodePool copy(){
+    return new NodePool(this);
+  }
+
+  /**
+   * Adds a node without children or siblings and returns its handle.
+   */
+  public int newNode(ASTNodeType type, int value, int sourceLineNumber){
+    if(size==types.length){
+      int capacity = size*2;
+      types = Arrays.copyOf(types, capacity);
+      values = Arrays.copyOf(values, capacity);
+      children = Arrays.copyOf(children, capacity);
+      siblings = Arrays.copyOf(siblings, capacity);
+      lines = Arrays.copyOf(lines, capacity);
+    }
+    types[size] = (byte)type.ordinal();
+    values[size] = value;
+    children[size] = NULL;
+    siblings[size] = NULL;
+    lines[size] = sourceLineNumber;
+    return size++;
+  }
+
+  public int size(){
+    return size;
+  }
+
+  /**
+   * Keeps the text of an integer or string literal in this pool, and returns the node value
+   * that stands for it.
+   */
+  public int addLiteral(String text){
+    if(literalCount==literals.length)
+      literals = Arrays.copyOf(literals, literalCount*2);
+    literals[literalCount++] = text;
+    return -literalCount;
+  }
+
+  public ASTNodeType getType(int node){
+    return nodeTypes[types[node]];
+  }
+
+  public void setType(int node, ASTNodeType type){
+    types[node] = (byte)type.ordinal();
+  }
+
+  public int getValue(int node){
+    return values[node];
+  }
+
+  public void setValue(int node, int value){
+    values[node] = value;
+  }
+
+  /**
+   * Returns the node's text, or null if it has none.
+   */
+  public String getValueName(int node){
+    int value = values[node];
+    if(value<0)
+      return literals[-value-1];
+    return value==SymbolTable.NONE?null:SymbolTable.name(value);
+  }
+
+  public int getChild(int node){
+    return children[node];
+  }
+
+  public void setChild(int node, int child){
+    children[node] = child;
+  }
+
+  public int getSibling(int node){
+    return siblings[node];
+  }
+
+  public void setSibling(int node, int sibling){
+    siblings[node] = sibling;
+  }
+
+  public int getSourceLineNumber(int node){
+    return lines[node];
+  }
+
+  public void setSourceLineNumber(int node, int sourceLineNumber){
+    lines[node] = sourceLineNumber;
+  }
+
+  /**
+   * Gives astNode the fields of the given node, but not its children or siblings, and returns it.
+   */
+  public ASTNode toASTNode(int node, ASTNode astNode){
+    ASTNodeType type = getType(node);
+    astNode.setType(type);
+    astNode.setValue(getValueName(node));
+    switch(type){ //the nodes the parser gave a symbol
+      case IDENTIFIER:
+      case TRUE:
+      case FALSE:
+      case NIL:
+      case DUMMY:
+        astNode.setSymbol(values[node]);
+        break;
+      default:
+        break;
+    }
+    astNode.setSourceLineNumber(lines[node]);
+    return astNode;
+  }
+}
@@ -0,0 +1,223 @@
+package ast;
+
+import scanner.SymbolTable;
+
+/**
+ * The standardizing rules, applied to one node of a tree in a NodePool at a time. A node is
+ * standardized after all of its children are: AST.standardize() does so in a post-order walk
+ * of the whole tree, and the parser can do so as it builds each node (see
+ * Parser.buildStandardizedAST()). The rules change a node and the nodes below it, never the
+ * node's sibling, so it does not matter whether the node is linked to its siblings yet.
+ */
+public class Standardizer{
+  private NodePool pool;
+
+  public Standardizer(NodePool pool){
+    this.pool = pool;
+  }
+
+  /**
+   * Standardizes one node whose children are standardized already
+   */
+  public void standardizeNode(int node){
+    switch(pool.getType(node)){
+      case WHERE:
+        //make this is a LET node and standardize that
+        //       WHERE               LET
+        //       /   \             /     \
+        //      P    EQUAL   ->  EQUAL   P
+        //           /   \       /   \
+        //          X     E     X     E
+        int equalNode = pool.getSibling(pool.getChild(node));
+        pool.setSibling(pool.getChild(node), NodePool.NULL);
+        pool.setSibling(equalNode, pool.getChild(node));
+        pool.setChild(node, equalNode);
+        pool.setType(node, ASTNodeType.LET);
+        //the children are standardized already, so apply the LET rule directly
+        standardizeLet(node);
+        break;
+      case LET:                   //standerdizing the LET node
+        standardizeLet(node);
+        break;
+      
+      case FCNFORM:              //standerdize the function forms
+        //       FCN_FORM                EQUAL
+        //       /   |   \              /    \
+        //      P    V+   E    ->      P     +LAMBDA
+        //                                    /     \
+        //                                    V     .E
+        int childSibling = pool.getSibling(pool.getChild(node));
+        pool.setSibling(pool.getChild(node), constructLambdaChain(childSibling));
+        pool.setType(node, ASTNodeType.EQUAL);
+        break;
+
+      case AT:         //standerdize the AT node
+        //         AT              GAMMA
+        //       / | \    ->       /    \
+        //      E1 N E2          GAMMA   E2
+        //                       /    \
+        //                      N     E1
+        int e1 = pool.getChild(node);
+        int n = pool.getSibling(e1);
+        int e2 = pool.getSibling(n);
+        int gammaNode = pool.newNode(ASTNodeType.GAMMA, SymbolTable.NONE, 0);
+        pool.setChild(gammaNode, n);
+        pool.setSibling(n, e1);
+        pool.setSibling(e1, NodePool.NULL);
+        pool.setSibling(gammaNode, e2);
+        pool.setChild(node, gammaNode);
+        pool.setType(node, ASTNodeType.GAMMA);
+        break;
+
+      case WITHIN:          //standerdise the WITHIN node
+        //           WITHIN                  EQUAL
+        //          /      \                /     \
+        //        EQUAL   EQUAL    ->      X2     GAMMA
+        //       /    \   /    \                  /    \
+        //      X1    E1 X2    E2               LAMBDA  E1
+        //                                      /    \
+        //                                     X1    E2
+        if(pool.getType(pool.getChild(node))!=ASTNodeType.EQUAL || pool.getType(pool.getSibling(pool.getChild(node)))!=ASTNodeType.EQUAL)
+          throw new StandardizeException("WITHIN: one of the children is not EQUAL"); //done for safety reasons
+        int x1 = pool.getChild(pool.getChild(node));
+        e1 = pool.getSibling(x1);
+        int x2 = pool.getChild(pool.getSibling(pool.getChild(node)));
+        e2 = pool.getSibling(x2);
+        int lambdaNode = pool.newNode(ASTNodeType.LAMBDA, SymbolTable.NONE, 0);
+        pool.setSibling(x1, e2);
+        pool.setChild(lambdaNode, x1);
+        pool.setSibling(lambdaNode, e1);
+        gammaNode = pool.newNode(ASTNodeType.GAMMA, SymbolTable.NONE, 0);
+        pool.setChild(gammaNode, lambdaNode);
+        pool.setSibling(x2, gammaNode);
+        pool.setChild(node, x2);
+        pool.setType(node, ASTNodeType.EQUAL);
+        break;
+      
+      case SIMULTDEF:
+        //         SIMULTDEF            EQUAL
+        //             |               /     \
+        //           EQUAL++  ->     COMMA   TAU
+        //           /   \             |      |
+        //          X     E           X++    E++
+        int commaNode = pool.newNode(ASTNodeType.COMMA, SymbolTable.NONE, 0);
+        int tauNode = pool.newNode(ASTNodeType.TAU, SymbolTable.NONE, 0);
+        int lastX = NodePool.NULL; //the last children of commaNode and tauNode so far
+        int lastE = NodePool.NULL;
+        int childNode = pool.getChild(node);
+        while(childNode!=NodePool.NULL){
+          if(pool.getType(childNode)!=ASTNodeType.EQUAL)
+            throw new StandardizeException("SIMULTDEF: one of the children is not EQUAL"); //done for safety reasons
+          int xNode = pool.getChild(childNode);
+          int eNode = pool.getSibling(xNode);
+          appendChild(commaNode, lastX, xNode);
+          lastX = xNode;
+          appendChild(tauNode, lastE, eNode);
+          lastE = eNode;
+          childNode = pool.getSibling(childNode);
+        }
+        pool.setSibling(commaNode, tauNode);
+        pool.setChild(node, commaNode);
+        pool.setType(node, ASTNodeType.EQUAL);
+        break;
+      
+      case REC:
+        //        REC                 EQUAL
+        //         |                 /     \
+        //       EQUAL     ->       X     GAMMA
+        //      /     \                   /    \
+        //     X       E                YSTAR  LAMBDA
+        //                                     /     \
+        //                                    X       E
+        childNode = pool.getChild(node);
+        if(pool.getType(childNode)!=ASTNodeType.EQUAL)
+          throw new StandardizeException("REC: child is not EQUAL"); //done for  safety reasons
+        int x = pool.getChild(childNode);
+        lambdaNode = pool.newNode(ASTNodeType.LAMBDA, SymbolTable.NONE, 0);
+        pool.setChild(lambdaNode, x); //x is already attached to e
+        int yStarNode = pool.newNode(ASTNodeType.YSTAR, SymbolTable.NONE, 0);
+        pool.setSibling(yStarNode, lambdaNode);
+        gammaNode = pool.newNode(ASTNodeType.GAMMA, SymbolTable.NONE, 0);
+        pool.setChild(gammaNode, yStarNode);
+        int xWithSiblingGamma = pool.newNode(pool.getType(x), pool.getValue(x), 0); //same as x except the sibling is not e but gamma
+        pool.setChild(xWithSiblingGamma, pool.getChild(x));
+        pool.setSibling(xWithSiblingGamma, gammaNode);
+        pool.setChild(node, xWithSiblingGamma);
+        pool.setType(node, ASTNodeType.EQUAL);
+        break;
+      case LAMBDA:
+        //     LAMBDA        LAMBDA
+        //      /   \   ->   /    \
+        //     V++   E      V     .E
+        childSibling = pool.getSibling(pool.getChild(node));
+        pool.setSibling(pool.getChild(node), constructLambdaChain(childSibling));
+        break;
+      default:
+        //Following nodes we do not standerdize accourding to CSE optimization Rule 6 (binops)
+        // OR , AND, PLUS, MINUS, MULT, DIV, EXP, GR, GE, LS, LE, EQ, NE
+        
+        // Following nodes we do not standerdize accourding to CSE Optimization Rule 7 (unops)
+        // NOT, NEG
+        
+        // Following node we do not standerdize accourding to CSE Optimization Rule 8 (conditionals)
+        // CONDITIONAL
+        
+        // Following node we do not standerdize accourding to CSE Optimization Rule 9, 10 (tuples)
+        // TAU
+
+        // Following node we do not standerdize accourding to CSE Optimization Rule 11 (n-ary functions)
+        // COMMA
+        break;
+    }
+  }
+
+  //the LET rule, which WHERE also ends with
+  private void standardizeLet(int node){
+    //       LET              GAMMA
+    //     /     \           /     \
+    //    EQUAL   P   ->   LAMBDA   E
+    //   /   \             /    \
+    //  X     E           X      P
+    int equalNode = pool.getChild(node);
+    if(pool.getType(equalNode)!=ASTNodeType.EQUAL)
+      throw new StandardizeException("LET/WHERE: left child is not EQUAL"); //done for safety reasons
+    int e = pool.getSibling(pool.getChild(equalNode));
+    pool.setSibling(pool.getChild(equalNode), pool.getSibling(equalNode));
+    pool.setSibling(equalNode, e);
+    pool.setType(equalNode, ASTNodeType.LAMBDA);
+    pool.setType(node, ASTNodeType.GAMMA);
+  }
+
+  /**
+   * Attaches childNode as the last child of parentNode, after lastChild, the current last child
+   * (NodePool.NULL if there is none)
+   */
+  private void appendChild(int parentNode, int lastChild, int childNode){
+    if(lastChild==NodePool.NULL)
+      pool.setChild(parentNode, childNode);
+    else
+      pool.setSibling(lastChild, childNode);
+    pool.setSibling(childNode, NodePool.NULL);
+  }
+
+  /**
+   * Turns V1 ... Vn E, linked as siblings starting at node, into the chain
+   * LAMBDA(V1, LAMBDA(V2, ... LAMBDA(Vn, E))) and returns its top, or node itself if it has no
+   * sibling
+   */
+  private int constructLambdaChain(int node){
+    if(pool.getSibling(node)==NodePool.NULL)
+      return node;
+    
+    int lambdaNode = pool.newNode(ASTNodeType.LAMBDA, SymbolTable.NONE, 0);
+    pool.setChild(lambdaNode, node);
+    while(pool.getSibling(pool.getSibling(node))!=NodePool.NULL){ //the next sibling is another variable
+      int nextNode = pool.getSibling(node);
+      int nextLambdaNode = pool.newNode(ASTNodeType.LAMBDA, SymbolTable.NONE, 0);
+      pool.setChild(nextLambdaNode, nextNode);
+      pool.setSibling(node, nextLambdaNode);
+      node = nextNode;
+    }
+    return lambdaNode;
+  }
+}
@@ -46,8 +46,4 @@ public class Beta extends ASTNode{
     elseBody = new Stack<ASTNode>();
   }
   
-  public Beta accept(NodeCopier nodeCopier){
-    return nodeCopier.copy(this);
-  }
-  
 }
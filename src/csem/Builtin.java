@@ -0,0 +1,116 @@
+package csem;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import ast.ASTNode;
+import ast.ASTNodeType;
+
+/**
+ * A builtin function, such as Print or Conc, as a value. The primitive environment binds each
+ * builtin name to one (see {@link #createPrimitiveEnvironment}), and Resolver finds those
+ * bindings before the program runs, so applying a builtin is a switch on its int code with no
+ * names involved.
+ *
+ * A builtin takes {@link #getArity()} arguments one application at a time: applying it to fewer
+ * makes a partial application, a Builtin holding the arguments so far. It prints as its name,
+ * which is also what it was before builtins were values.
+ */
+public class Builtin extends ASTNode{
+  public static final int ISINTEGER = 0;
+  public static final int ISSTRING = 1;
+  public static final int ISTUPLE = 2;
+  public static final int ISDUMMY = 3;
+  public static final int ISTRUTHVALUE = 4;
+  public static final int ISFUNCTION = 5;
+  public static final int ITOS = 6;
+  public static final int ORDER = 7;
+  public static final int CONC = 8;
+  public static final int STERN = 9;
+  public static final int STEM = 10;
+  public static final int NULL = 11;
+  public static final int PRINT = 12;
+  public static final int NEG = 13; //reserved, but applying it is an error
+
+  // Note how this list is different from the one defined in Scanner.java
+  private static final List<String> names = Collections.unmodifiableList(Arrays.asList(
+      "Isinteger", "Isstring", "Istuple", "Isdummy", "Istruthvalue", "Isfunction", "ItoS", "Order",
+      "Conc", "conc", //typos
+      "Stern", "Stem", "Null",
+      "Print", "print", //typos
+      "neg"));
+  private static final int[] codes = {
+      ISINTEGER, ISSTRING, ISTUPLE, ISDUMMY, ISTRUTHVALUE, ISFUNCTION, ITOS, ORDER,
+      CONC, CONC,
+      STERN, STEM, NULL,
+      PRINT, PRINT,
+      NEG};
+  private static final ASTNode[] NO_ARGUMENTS = new ASTNode[0];
+
+  private final int code;
+  private final int arity;
+  private final ASTNode[] arguments; //fewer than arity
+
+  private Builtin(String name, int code, ASTNode[] arguments){
+    setType(ASTNodeType.IDENTIFIER);
+    setValue(name);
+    this.code = code;
+    arity = code==CONC?2:1;
+    this.arguments = arguments;
+  }
+
+  /**
+   * Returns the names the primitive environment binds, in the order of its slots.
+   */
+  public static List<String> getNames(){
+    return names;
+  }
+
+  /**
+   * Creates the environment the root delta is evaluated in, which binds the builtins.
+   */
+  public static Environment createPrimitiveEnvironment(){
+    Environment primitiveEnv = Environment.create(null, names);
+    for(int i=0;i<names.size();++i)
+      primitiveEnv.bind(i, new Builtin(names.get(i), codes[i], NO_ARGUMENTS));
+    return primitiveEnv;
+  }
+
+  /**
+   * Returns the builtin in the given slot of the primitive environment, carrying the line of
+   * the identifier that names it, for error messages.
+   */
+  public static Builtin create(int slot, int sourceLineNumber){
+    Builtin builtin = new Builtin(names.get(slot), codes[slot], NO_ARGUMENTS);
+    builtin.setSourceLineNumber(sourceLineNumber);
+    return builtin;
+  }
+
+  public int getCode(){
+    return code;
+  }
+
+  public int getArity(){
+    return arity;
+  }
+
+  /**
+   * Returns the arguments this builtin has been applied to so far.
+   */
+  public ASTNode[] getArguments(){
+    return arguments;
+  }
+
+  /**
+   * Returns the partial application of this builtin to one more argument. Only for a builtin
+   * that still needs more than one.
+   */
+  public Builtin partiallyApply(ASTNode argument){
+    ASTNode[] applied = Arrays.copyOf(arguments, arguments.length+1);
+    applied[arguments.length] = argument;
+    Builtin partial = new Builtin(getValue(), code, applied);
+    partial.setSourceLineNumber(getSourceLineNumber());
+    return partial;
+  }
+}
@@ -7,95 +7,186 @@ import ast.ASTNodeType;
 
 public class CSEMachine{
 
+  //values that are nothing more than their type are shared, as values are never changed
+  private static final ASTNode trueNode = createConstant(ASTNodeType.TRUE, "true");
+  private static final ASTNode falseNode = createConstant(ASTNodeType.FALSE, "false");
+  private static final ASTNode dummyNode = createConstant(ASTNodeType.DUMMY, null);
+  private static final Tuple nilNode = new Tuple();
+
   private Stack<ASTNode> valueStack;
   private Delta rootDelta;
+  private int[] code; //the code of the body being evaluated (see CodeGenerator)
+  private ASTNode[] operands;
+  private int pc; //the next instruction in code
+  private int pendingGammas; //gammas RULE 13 put back, to apply before the next instruction
+  private Environment currentEnv; //the environment the body is evaluated in
+  private Stack<Frame> frames; //the callers waiting for the body to finish, innermost on top
+
+  /**
+   * A caller suspended while a delta it applied is evaluated: where it is in its code, and its
+   * environment.
+   */
+  private static class Frame{
+    int[] code;
+    ASTNode[] operands;
+    int pc;
+    int pendingGammas;
+    Environment env;
+
+    Frame(int[] code, ASTNode[] operands, int pc, int pendingGammas, Environment env){
+      this.code = code;
+      this.operands = operands;
+      this.pc = pc;
+      this.pendingGammas = pendingGammas;
+      this.env = env;
+    }
+  }
 
   public CSEMachine(AST ast){
     if(!ast.isStandardized())
       throw new RuntimeException("AST has NOT been standardized!"); //should never happen
     rootDelta = ast.createDeltas();
-    rootDelta.setLinkedEnv(new Environment()); //primitive environment
+    Resolver.resolve(rootDelta);
+    CodeGenerator.compile(rootDelta);
+    rootDelta.setLinkedEnv(Builtin.createPrimitiveEnvironment());
     valueStack = new Stack<ASTNode>();
   }
 
-  public void evaluateProgram(){
-    processControlStack(rootDelta, rootDelta.getLinkedEnv());
-  }
-
-  private void processControlStack(Delta currentDelta, Environment currentEnv){
-    //create a new control stack and add all of the delta's body to it so that the delta's body isn't
-    //modified whenever the control stack is popped in all the functions below
-    Stack<ASTNode> controlStack = new Stack<ASTNode>();
-    controlStack.addAll(currentDelta.getBody());
-    
-    while(!controlStack.isEmpty())
-      processCurrentNode(currentDelta, currentEnv, controlStack);
+  public CSEMachine(Delta rootDelta){
+    //a program whose deltas were already created, e.g. read back by CompiledProgram
+    this.rootDelta = rootDelta;
+    Resolver.resolve(rootDelta);
+    CodeGenerator.compile(rootDelta);
+    rootDelta.setLinkedEnv(Builtin.createPrimitiveEnvironment());
+    valueStack = new Stack<ASTNode>();
   }
 
-  private void processCurrentNode(Delta currentDelta, Environment currentEnv, Stack<ASTNode> currentControlStack){
-    //pop the top node from control stack and process it.
-    ASTNode node = currentControlStack.pop();
-    if(applyBinaryOperation(node))
-      return;
-    else if(applyUnaryOperation(node))
-      return;
-    else{
-      switch(node.getType()){
-        case IDENTIFIER:
-          handleIdentifiers(node, currentEnv);
+  /**
+   * Evaluates the program in one loop over the compiled code of its deltas. Applying a delta
+   * suspends the caller in a Frame on the heap rather than recursing, so deep recursion in a
+   * program costs no Java stack, and a tail call suspends nothing (see {@link #enterDelta}).
+   */
+  public void evaluateProgram(){
+    frames = new Stack<Frame>();
+    enterDelta(rootDelta, rootDelta.getLinkedEnv());
+    while(true){
+      if(pendingGammas>0){
+        pendingGammas--;
+        applyGamma();
+        continue;
+      }
+      switch(code[pc++]){
+        case Opcode.PUSH:
+          // Although we use ASTNodes, a CSEM will only ever see a subset of all possible ASTNodeTypes.
+          // These are the types that are NOT standardized away into lambdas and gammas. E.g. types
+          // such as LET, WHERE, WITHIN, SIMULTDEF etc will NEVER be encountered by the CSEM
+          valueStack.push(operands[code[pc++]]);
           break;
-        case NIL:
-        case TAU:
-          createTuple(node);
+        case Opcode.IDENTIFIER:
+          handleIdentifiers((Identifier)operands[code[pc++]]);
           break;
-        case BETA:
-          handleBeta((Beta)node, currentControlStack);
+        case Opcode.CLOSURE:
+          valueStack.push(((Delta)operands[code[pc++]]).createClosure(currentEnv)); //RULE 2
           break;
-        case GAMMA:
-          applyGamma(currentDelta, node, currentEnv, currentControlStack);
+        case Opcode.TUPLE:
+          createTuple(code[pc++]);
           break;
-        case DELTA:
-          ((Delta)node).setLinkedEnv(currentEnv); //RULE 2
-          valueStack.push(node);
+        case Opcode.GAMMA:
+          applyGammas(code[pc++]);
           break;
-        default:
-          // Although we use ASTNodes, a CSEM will only ever see a subset of all possible ASTNodeTypes.
-          // These are the types that are NOT standardized away into lambdas and gammas. E.g. types
-          // such as LET, WHERE, WITHIN, SIMULTDEF etc will NEVER be encountered by the CSEM
-          valueStack.push(node);
+        case Opcode.CALL:
+          call(code[pc++]);
+          break;
+        case Opcode.BRANCH:
+          handleBeta();
+          break;
+        case Opcode.JUMP:
+          pc = code[pc];
+          break;
+        case Opcode.RETURN:
+          if(frames.isEmpty())
+            return;
+          //the body is done, and its value is on the value stack. return to the caller
+          Frame caller = frames.pop();
+          code = caller.code;
+          operands = caller.operands;
+          pc = caller.pc;
+          pendingGammas = caller.pendingGammas;
+          currentEnv = caller.env;
+          break;
+        // RULE 6
+        case Opcode.PLUS:
+          binaryArithmeticOp(ASTNodeType.PLUS);
+          break;
+        case Opcode.MINUS:
+          binaryArithmeticOp(ASTNodeType.MINUS);
+          break;
+        case Opcode.MULT:
+          binaryArithmeticOp(ASTNodeType.MULT);
+          break;
+        case Opcode.DIV:
+          binaryArithmeticOp(ASTNodeType.DIV);
+          break;
+        case Opcode.EXP:
+          binaryArithmeticOp(ASTNodeType.EXP);
+          break;
+        case Opcode.LS:
+          binaryArithmeticOp(ASTNodeType.LS);
           break;
+        case Opcode.LE:
+          binaryArithmeticOp(ASTNodeType.LE);
+          break;
+        case Opcode.GR:
+          binaryArithmeticOp(ASTNodeType.GR);
+          break;
+        case Opcode.GE:
+          binaryArithmeticOp(ASTNodeType.GE);
+          break;
+        case Opcode.EQ:
+          binaryLogicalEqNeOp(ASTNodeType.EQ);
+          break;
+        case Opcode.NE:
+          binaryLogicalEqNeOp(ASTNodeType.NE);
+          break;
+        case Opcode.OR:
+          binaryLogicalOrAndOp(ASTNodeType.OR);
+          break;
+        case Opcode.AND:
+          binaryLogicalOrAndOp(ASTNodeType.AND);
+          break;
+        case Opcode.AUG:
+          augTuples();
+          break;
+        // RULE 7
+        case Opcode.NOT:
+          not();
+          break;
+        case Opcode.NEG:
+          neg();
+          break;
+        default:
+          throw new IllegalStateException("unknown opcode "+code[pc-1]); //should never happen
       }
     }
   }
 
-  // RULE 6
-  private boolean applyBinaryOperation(ASTNode rator){
-    switch(rator.getType()){
-      case PLUS:
-      case MINUS:
-      case MULT:
-      case DIV:
-      case EXP:
-      case LS:
-      case LE:
-      case GR:
-      case GE:
-        binaryArithmeticOp(rator.getType());
-        return true;
-      case EQ:
-      case NE:
-        binaryLogicalEqNeOp(rator.getType());
-        return true;
-      case OR:
-      case AND:
-        binaryLogicalOrAndOp(rator.getType());
-        return true;
-      case AUG:
-        augTuples();
-        return true;
-      default:
-        return false;
-    }
+  private void enterDelta(Delta nextDelta, Environment newEnv){
+    //a caller with nothing left to evaluate would only return the callee's value, so a call in
+    //tail position does not suspend it, and a loop written as tail recursion runs in constant space
+    if(code!=null && (pendingGammas>0 || code[skipJumps(pc)]!=Opcode.RETURN))
+      frames.push(new Frame(code, operands, pc, pendingGammas, currentEnv));
+    code = nextDelta.getCode();
+    operands = nextDelta.getOperands();
+    pc = 0;
+    pendingGammas = 0;
+    currentEnv = newEnv;
+  }
+
+  private int skipJumps(int address){
+    //the then body of a Beta ends with a JUMP to what follows the Beta
+    while(code[address]==Opcode.JUMP)
+      address = code[address+1];
+    return address;
   }
 
   private void binaryArithmeticOp(ASTNodeType type){
@@ -104,53 +195,46 @@ public class CSEMachine{
     if(rand1.getType()!=ASTNodeType.INTEGER || rand2.getType()!=ASTNodeType.INTEGER)
       EvaluationError.printError(rand1.getSourceLineNumber(), "Expected two integers; was given \""+rand1.getValue()+"\", \""+rand2.getValue()+"\"");
 
-    ASTNode result = new ASTNode();
-    result.setType(ASTNodeType.INTEGER);
+    int int1 = getIntValue(rand1);
+    int int2 = getIntValue(rand2);
 
     switch(type){
       case PLUS:
-        result.setValue(Integer.toString(Integer.parseInt(rand1.getValue())+Integer.parseInt(rand2.getValue())));
+        valueStack.push(IntValue.valueOf(int1+int2));
         break;
       case MINUS:
-        result.setValue(Integer.toString(Integer.parseInt(rand1.getValue())-Integer.parseInt(rand2.getValue())));
+        valueStack.push(IntValue.valueOf(int1-int2));
         break;
       case MULT:
-        result.setValue(Integer.toString(Integer.parseInt(rand1.getValue())*Integer.parseInt(rand2.getValue())));
+        valueStack.push(IntValue.valueOf(int1*int2));
         break;
       case DIV:
-        result.setValue(Integer.toString(Integer.parseInt(rand1.getValue())/Integer.parseInt(rand2.getValue())));
+        valueStack.push(IntValue.valueOf(int1/int2));
         break;
       case EXP:
-        result.setValue(Integer.toString((int)Math.pow(Integer.parseInt(rand1.getValue()), Integer.parseInt(rand2.getValue()))));
+        valueStack.push(IntValue.valueOf((int)Math.pow(int1, int2)));
         break;
       case LS:
-        if(Integer.parseInt(rand1.getValue())<Integer.parseInt(rand2.getValue()))
-          pushTrueNode();
-        else
-          pushFalseNode();
-        return;
+        pushTruthValue(int1<int2);
+        break;
       case LE:
-        if(Integer.parseInt(rand1.getValue())<=Integer.parseInt(rand2.getValue()))
-          pushTrueNode();
-        else
-          pushFalseNode();
-        return;
+        pushTruthValue(int1<=int2);
+        break;
       case GR:
-        if(Integer.parseInt(rand1.getValue())>Integer.parseInt(rand2.getValue()))
-          pushTrueNode();
-        else
-          pushFalseNode();
-        return;
+        pushTruthValue(int1>int2);
+        break;
       case GE:
-        if(Integer.parseInt(rand1.getValue())>=Integer.parseInt(rand2.getValue()))
-          pushTrueNode();
-        else
-          pushFalseNode();
-        return;
+        pushTruthValue(int1>=int2);
+        break;
       default:
         break;
     }
-    valueStack.push(result);
+  }
+
+  private int getIntValue(ASTNode node){
+    if(node instanceof IntValue)
+      return ((IntValue)node).getIntValue();
+    return Integer.parseInt(node.getValue()); //a literal too large for an int, which fails here
   }
 
   private void binaryLogicalEqNeOp(ASTNodeType type){
@@ -190,7 +274,7 @@ public class CSEMachine{
   }
 
   private void compareStrings(ASTNode rand1, ASTNode rand2, ASTNodeType type){
-    if(rand1.getValue().equals(rand2.getValue()))
+    if(StringValue.equals(rand1, rand2))
       if(type==ASTNodeType.EQ)
         pushTrueNode();
       else
@@ -203,7 +287,7 @@ public class CSEMachine{
   }
 
   private void compareIntegers(ASTNode rand1, ASTNode rand2, ASTNodeType type){
-    if(Integer.parseInt(rand1.getValue())==Integer.parseInt(rand2.getValue()))
+    if(getIntValue(rand1)==getIntValue(rand2))
       if(type==ASTNodeType.EQ)
         pushTrueNode();
       else
@@ -250,31 +334,7 @@ public class CSEMachine{
     if(rand1.getType()!=ASTNodeType.TUPLE)
       EvaluationError.printError(rand1.getSourceLineNumber(), "Cannot augment a non-tuple \""+rand1.getValue()+"\"");
 
-    ASTNode childNode = rand1.getChild();
-    if(childNode==null)
-      rand1.setChild(rand2);
-    else{
-      while(childNode.getSibling()!=null)
-        childNode = childNode.getSibling();
-      childNode.setSibling(rand2);
-    }
-    rand2.setSibling(null);
-
-    valueStack.push(rand1);
-  }
-
-  // RULE 7
-  private boolean applyUnaryOperation(ASTNode rator){
-    switch(rator.getType()){
-      case NOT:
-        not();
-        return true;
-      case NEG:
-        neg();
-        return true;
-      default:
-        return false;
-    }
+    valueStack.push(((Tuple)rand1).augment(rand2));
   }
 
   private void not(){
@@ -293,42 +353,43 @@ public class CSEMachine{
     if(rand.getType()!=ASTNodeType.INTEGER)
       EvaluationError.printError(rand.getSourceLineNumber(), "Expecting a truthvalue; was given \""+rand.getValue()+"\"");
 
-    ASTNode result = new ASTNode();
-    result.setType(ASTNodeType.INTEGER);
-    result.setValue(Integer.toString(-1*Integer.parseInt(rand.getValue())));
-    valueStack.push(result);
+    valueStack.push(IntValue.valueOf(-1*getIntValue(rand)));
+  }
+
+  /**
+   * Runs a GAMMA, which numGammas-1 more follow. If the rator is a chain of lambdas (see Delta)
+   * no longer than that, the GAMMAs would apply its lambdas one after the other to the values
+   * below it, so they are all bound at once instead, and the body of the last one entered
+   * without making the closures in between.
+   */
+  private void applyGammas(int numGammas){
+    ASTNode rator = valueStack.peek();
+    Delta callee = null;
+    if(rator.getType()==ASTNodeType.DELTA)
+      callee = (Delta)rator;
+    else if(rator.getType()==ASTNodeType.ETA)
+      callee = ((Eta)rator).getClosure();
+
+    if(callee==null || callee.getChainLength()==1 || callee.getChainLength()>numGammas){
+      applyGamma();
+      return;
+    }
+
+    valueStack.pop();
+    Environment newEnv = createEnvironment(callee);
+    for(int i=0;i<callee.getChainLength();++i)
+      newEnv.bind(callee.getFrameSlot()+i, valueStack.pop()); //RULE 4, once for each lambda
+    pc += 2*(callee.getChainLength()-1); //the GAMMAs that would apply the closures in between
+    enterDelta(callee.getChainEnd(), newEnv);
   }
 
   //RULE 3
-  private void applyGamma(Delta currentDelta, ASTNode node, Environment currentEnv, Stack<ASTNode> currentControlStack){
+  private void applyGamma(){
     ASTNode rator = valueStack.pop();
     ASTNode rand = valueStack.pop();
 
     if(rator.getType()==ASTNodeType.DELTA){
-      Delta nextDelta = (Delta) rator;
-      
-      //Delta has a link to the environment in effect when it is pushed on to the value stack (search
-      //for 'RULE 2' in this file to see where it's done)
-      //We construct a new environment here that will contain all the bindings (single or multiple)
-      //required by this Delta. This new environment will link back to the environment carried by the Delta.
-      Environment newEnv = new Environment();
-      newEnv.setParent(nextDelta.getLinkedEnv());
-      
-      //RULE 4
-      if(nextDelta.getBoundVars().size()==1){
-        newEnv.addMapping(nextDelta.getBoundVars().get(0), rand);
-      }
-      //RULE 11
-      else{
-        if(rand.getType()!=ASTNodeType.TUPLE)
-          EvaluationError.printError(rand.getSourceLineNumber(), "Expected a tuple; was given \""+rand.getValue()+"\"");
-        
-        for(int i = 0; i < nextDelta.getBoundVars().size(); i++){
-          newEnv.addMapping(nextDelta.getBoundVars().get(i), getNthTupleChild((Tuple)rand, i+1)); //+ 1 coz tuple indexing starts at 1
-        }
-      }
-      
-      processControlStack(nextDelta, newEnv);
+      applyDelta((Delta)rator, rand);
       return;
     }
     else if(rator.getType()==ASTNodeType.YSTAR){
@@ -338,79 +399,162 @@ public class CSEMachine{
       
       Eta etaNode = new Eta();
       etaNode.setDelta((Delta)rand);
+      tieKnot(etaNode);
       valueStack.push(etaNode);
       return;
     }
     else if(rator.getType()==ASTNodeType.ETA){
+      Eta etaNode = (Eta)rator;
+      if(etaNode.getClosure()!=null){
+        //(F eta) rand, with F eta already evaluated
+        applyDelta(etaNode.getClosure(), rand);
+        return;
+      }
       //RULE 13
       //push back the rand, the eta and then the delta it contains
       valueStack.push(rand);
       valueStack.push(rator);
-      valueStack.push(((Eta)rator).getDelta());
+      valueStack.push(etaNode.getDelta());
       //push back two gammas (one for the eta and one for the delta)
-      currentControlStack.push(node);
-      currentControlStack.push(node);
+      pendingGammas += 2;
       return;
     }
     else if(rator.getType()==ASTNodeType.TUPLE){
       tupleSelection((Tuple)rator, rand);
       return;
     }
-    else if(evaluateReservedIdentifiers(rator, rand, currentControlStack))
-      return;
+    else if(rator instanceof Builtin)
+      applyBuiltin((Builtin)rator, rand);
     else
       EvaluationError.printError(rator.getSourceLineNumber(), "Don't know how to evaluate \""+rator.getValue()+"\"");
   }
 
-  private boolean evaluateReservedIdentifiers(ASTNode rator, ASTNode rand, Stack<ASTNode> currentControlStack){
-    switch(rator.getValue()){
-      case "Isinteger":
+  /**
+   * Applies the top value to a tuple of the numArguments values below it, which a CALL leaves
+   * unmade. A closure binding that many variables, the usual callee, gets them in its slots
+   * straight from the value stack (RULE 11 without the tuple); anything else gets the tuple.
+   */
+  private void call(int numArguments){
+    ASTNode rator = valueStack.pop();
+    Delta callee = null;
+    if(rator.getType()==ASTNodeType.DELTA)
+      callee = (Delta)rator;
+    else if(rator.getType()==ASTNodeType.ETA)
+      callee = ((Eta)rator).getClosure();
+
+    if(callee==null || callee.getBoundVars().size()!=numArguments){
+      createTuple(numArguments);
+      valueStack.push(rator);
+      applyGamma();
+      return;
+    }
+
+    Environment newEnv = Environment.create(callee.getLinkedEnv(), callee.getBoundVars());
+    for(int i=0;i<numArguments;++i)
+      newEnv.bind(i, valueStack.pop());
+    enterDelta(callee, newEnv);
+  }
+
+  private void applyDelta(Delta nextDelta, ASTNode rand){
+    //Delta has a link to the environment in effect when it is pushed on to the value stack (search
+    //for 'RULE 2' in this file to see where it's done)
+    //We construct a new environment here that will contain all the bindings (single or multiple)
+    //required by this Delta. This new environment will link back to the environment carried by the Delta.
+    Environment newEnv = createEnvironment(nextDelta);
+    
+    //RULE 4
+    if(nextDelta.getBoundVars().size()==1){
+      newEnv.bind(nextDelta.getFrameSlot(), rand);
+    }
+    //RULE 11
+    else{
+      if(rand.getType()!=ASTNodeType.TUPLE)
+        EvaluationError.printError(rand.getSourceLineNumber(), "Expected a tuple; was given \""+rand.getValue()+"\"");
+      
+      for(int i = 0; i < nextDelta.getBoundVars().size(); i++){
+        newEnv.bind(i, getNthTupleChild((Tuple)rand, i+1)); //+ 1 coz tuple indexing starts at 1
+      }
+    }
+    
+    enterDelta(nextDelta, newEnv);
+  }
+
+  private Environment createEnvironment(Delta nextDelta){
+    //a lambda inside a chain binds its variable in a copy of the environment of the lambdas
+    //before it, which its closure was made in
+    if(nextDelta.getFrameSlot()>0)
+      return nextDelta.getLinkedEnv().copy();
+    return Environment.create(nextDelta.getLinkedEnv(), nextDelta.getFrameNames());
+  }
+
+  /**
+   * Evaluates F eta once and for all if that only makes a closure, i.e. if F is fn f. fn x. E,
+   * the usual shape of a rec: every application of eta would make the same closure of
+   * fn x. E over an environment binding f to eta, so the eta keeps that closure, and applying
+   * it is an ordinary call instead of the unrolling of RULE 13.
+   */
+  private void tieKnot(Eta etaNode){
+    Delta function = etaNode.getDelta();
+    int[] functionCode = function.getCode();
+    if(function.getBoundVars().size()!=1 || functionCode.length!=3 || functionCode[0]!=Opcode.CLOSURE)
+      return;
+    Environment recEnv = createEnvironment(function);
+    recEnv.bind(function.getFrameSlot(), etaNode);
+    etaNode.setClosure(((Delta)function.getOperands()[functionCode[1]]).createClosure(recEnv));
+  }
+
+  private void applyBuiltin(Builtin rator, ASTNode rand){
+    if(rator.getArguments().length+1<rator.getArity()){
+      valueStack.push(rator.partiallyApply(rand));
+      return;
+    }
+    switch(rator.getCode()){
+      case Builtin.ISINTEGER:
         checkTypeAndPushTrueOrFalse(rand, ASTNodeType.INTEGER);
-        return true;
-      case "Isstring":
+        break;
+      case Builtin.ISSTRING:
         checkTypeAndPushTrueOrFalse(rand, ASTNodeType.STRING);
-        return true;
-      case "Isdummy":
+        break;
+      case Builtin.ISDUMMY:
         checkTypeAndPushTrueOrFalse(rand, ASTNodeType.DUMMY);
-        return true;
-      case "Isfunction":
+        break;
+      case Builtin.ISFUNCTION:
         checkTypeAndPushTrueOrFalse(rand, ASTNodeType.DELTA);
-        return true;
-      case "Istuple":
+        break;
+      case Builtin.ISTUPLE:
         checkTypeAndPushTrueOrFalse(rand, ASTNodeType.TUPLE);
-        return true;
-      case "Istruthvalue":
+        break;
+      case Builtin.ISTRUTHVALUE:
         if(rand.getType()==ASTNodeType.TRUE||rand.getType()==ASTNodeType.FALSE)
           pushTrueNode();
         else
           pushFalseNode();
-        return true;
-      case "Stem":
+        break;
+      case Builtin.STEM:
         stem(rand);
-        return true;
-      case "Stern":
+        break;
+      case Builtin.STERN:
         stern(rand);
-        return true;
-      case "Conc":
-      case "conc": //typos
-        conc(rand, currentControlStack);
-        return true;
-      case "Print":
-      case "print": //typos
+        break;
+      case Builtin.CONC:
+        conc(rator.getArguments()[0], rand);
+        break;
+      case Builtin.PRINT:
         printNodeValue(rand);
         pushDummyNode();
-        return true;
-      case "ItoS":
+        break;
+      case Builtin.ITOS:
         itos(rand);
-        return true;
-      case "Order":
+        break;
+      case Builtin.ORDER:
         order(rand);
-        return true;
-      case "Null":
+        break;
+      case Builtin.NULL:
         isNullTuple(rand);
-        return true;
+        break;
       default:
-        return false;
+        EvaluationError.printError(rator.getSourceLineNumber(), "Don't know how to evaluate \""+rator.getValue()+"\"");
+        break;
     }
   }
 
@@ -421,87 +565,77 @@ public class CSEMachine{
       pushFalseNode();
   }
 
+  private static ASTNode createConstant(ASTNodeType type, String value){
+    ASTNode constant = new ASTNode();
+    constant.setType(type);
+    constant.setValue(value);
+    return constant;
+  }
+
+  private void pushTruthValue(boolean truthValue){
+    valueStack.push(truthValue?trueNode:falseNode);
+  }
+
   private void pushTrueNode(){
-    ASTNode trueNode = new ASTNode();
-    trueNode.setType(ASTNodeType.TRUE);
-    trueNode.setValue("true");
     valueStack.push(trueNode);
   }
   
   private void pushFalseNode(){
-    ASTNode falseNode = new ASTNode();
-    falseNode.setType(ASTNodeType.FALSE);
-    falseNode.setValue("false");
     valueStack.push(falseNode);
   }
 
   private void pushDummyNode(){
-    ASTNode falseNode = new ASTNode();
-    falseNode.setType(ASTNodeType.DUMMY);
-    valueStack.push(falseNode);
+    valueStack.push(dummyNode);
   }
 
   private void stem(ASTNode rand){
     if(rand.getType()!=ASTNodeType.STRING)
       EvaluationError.printError(rand.getSourceLineNumber(), "Expected a string; was given \""+rand.getValue()+"\"");
     
-    if(rand.getValue().isEmpty())
-      rand.setValue("");
-    else
-      rand.setValue(rand.getValue().substring(0,1));
-    
-    valueStack.push(rand);
+    ASTNode result = StringValue.stem(rand);
+    result.setSourceLineNumber(rand.getSourceLineNumber());
+    valueStack.push(result);
   }
 
   private void stern(ASTNode rand){
     if(rand.getType()!=ASTNodeType.STRING)
       EvaluationError.printError(rand.getSourceLineNumber(), "Expected a string; was given \""+rand.getValue()+"\"");
     
-    if(rand.getValue().isEmpty() || rand.getValue().length()==1)
-      rand.setValue("");
-    else
-      rand.setValue(rand.getValue().substring(1));
-    
-    valueStack.push(rand);
+    ASTNode result = StringValue.stern(rand);
+    result.setSourceLineNumber(rand.getSourceLineNumber());
+    valueStack.push(result);
   }
 
-  private void conc(ASTNode rand1, Stack<ASTNode> currentControlStack){
-    currentControlStack.pop();
-    ASTNode rand2 = valueStack.pop();
+  private void conc(ASTNode rand1, ASTNode rand2){
     if(rand1.getType()!=ASTNodeType.STRING || rand2.getType()!=ASTNodeType.STRING)
       EvaluationError.printError(rand1.getSourceLineNumber(), "Expected two strings; was given \""+rand1.getValue()+"\", \""+rand2.getValue()+"\"");
 
-    ASTNode result = new ASTNode();
-    result.setType(ASTNodeType.STRING);
-    result.setValue(rand1.getValue()+rand2.getValue());
-    
-    valueStack.push(result);
+    valueStack.push(StringValue.concat(rand1, rand2));
   }
 
   private void itos(ASTNode rand){
     if(rand.getType()!=ASTNodeType.INTEGER)
       EvaluationError.printError(rand.getSourceLineNumber(), "Expected an integer; was given \""+rand.getValue()+"\"");
     
-    rand.setType(ASTNodeType.STRING); //all values are stored internally as strings, so nothing else to do
-    valueStack.push(rand);
+    ASTNode result = new ASTNode();
+    result.setType(ASTNodeType.STRING);
+    result.setValue(rand.getValue()); //all values are stored internally as strings, so nothing else to do
+    result.setSourceLineNumber(rand.getSourceLineNumber());
+    valueStack.push(result);
   }
 
   private void order(ASTNode rand){
     if(rand.getType()!=ASTNodeType.TUPLE)
       EvaluationError.printError(rand.getSourceLineNumber(), "Expected a tuple; was given \""+rand.getValue()+"\"");
 
-    ASTNode result = new ASTNode();
-    result.setType(ASTNodeType.INTEGER);
-    result.setValue(Integer.toString(getNumChildren(rand)));
-    
-    valueStack.push(result);
+    valueStack.push(IntValue.valueOf(((Tuple)rand).size()));
   }
 
   private void isNullTuple(ASTNode rand){
     if(rand.getType()!=ASTNodeType.TUPLE)
       EvaluationError.printError(rand.getSourceLineNumber(), "Expected a tuple; was given \""+rand.getValue()+"\"");
 
-    if(getNumChildren(rand)==0)
+    if(((Tuple)rand).size()==0)
       pushTrueNode();
     else
       pushFalseNode();
@@ -512,7 +646,7 @@ public class CSEMachine{
     if(rand.getType()!=ASTNodeType.INTEGER)
       EvaluationError.printError(rand.getSourceLineNumber(), "Non-integer tuple selection with \""+rand.getValue()+"\"");
 
-    ASTNode result = getNthTupleChild(rator, Integer.parseInt(rand.getValue()));
+    ASTNode result = getNthTupleChild(rator, getIntValue(rand));
     if(result==null)
       EvaluationError.printError(rand.getSourceLineNumber(), "Tuple selection index "+rand.getValue()+" out of bounds");
 
@@ -526,72 +660,45 @@ public class CSEMachine{
    * @return
    */
   private ASTNode getNthTupleChild(Tuple tupleNode, int n){
-    ASTNode childNode = tupleNode.getChild();
-    for(int i=1;i<n;++i){ //tuple selection index starts at 1
-      if(childNode==null)
-        break;
-      childNode = childNode.getSibling();
-    }
-    return childNode;
+    if(tupleNode.size()==0 || n>tupleNode.size())
+      return null;
+    return tupleNode.get(Math.max(n, 1)-1); //tuple selection index starts at 1; anything lower selects the first element
   }
 
-  private void handleIdentifiers(ASTNode node, Environment currentEnv){
-    if(currentEnv.lookup(node.getValue())!=null) // RULE 1
-      valueStack.push(currentEnv.lookup(node.getValue()));
-    else if(isReservedIdentifier(node.getValue()))
-      valueStack.push(node);
+  private void handleIdentifiers(Identifier node){
+    ASTNode value = null;
+    if(node.getDepth()>=0)
+      value = currentEnv.lookup(node.getDepth(), node.getSlot()); // RULE 1
+    if(value!=null)
+      valueStack.push(value);
     else
       EvaluationError.printError(node.getSourceLineNumber(), "Undeclared identifier \""+node.getValue()+"\"");
   }
 
   //RULE 9
-  private void createTuple(ASTNode node){
-    int numChildren = getNumChildren(node);
-    Tuple tupleNode = new Tuple();
+  private void createTuple(int numChildren){
     if(numChildren==0){
-      valueStack.push(tupleNode);
+      valueStack.push(nilNode);
       return;
     }
 
-    ASTNode childNode = null, tempNode = null;
-    for(int i=0;i<numChildren;++i){
-      if(childNode==null)
-        childNode = valueStack.pop();
-      else if(tempNode==null){
-        tempNode = valueStack.pop();
-        childNode.setSibling(tempNode);
-      }
-      else{
-        tempNode.setSibling(valueStack.pop());
-        tempNode = tempNode.getSibling();
-      }
-    }
-    tempNode.setSibling(null);
-    tupleNode.setChild(childNode);
-    valueStack.push(tupleNode);
+    ASTNode[] elements = new ASTNode[numChildren];
+    for(int i=0;i<numChildren;++i)
+      elements[i] = valueStack.pop();
+    valueStack.push(new Tuple(elements));
   }
 
   // RULE 8
-  private void handleBeta(Beta node, Stack<ASTNode> currentControlStack){
+  private void handleBeta(){
     ASTNode conditionResultNode = valueStack.pop();
 
     if(conditionResultNode.getType()!=ASTNodeType.TRUE && conditionResultNode.getType()!=ASTNodeType.FALSE)
       EvaluationError.printError(conditionResultNode.getSourceLineNumber(), "Expecting a truthvalue; found \""+conditionResultNode.getValue()+"\"");
 
     if(conditionResultNode.getType()==ASTNodeType.TRUE)
-      currentControlStack.addAll(node.getThenBody());
+      pc += 2; //the then body follows the BRANCH
     else
-      currentControlStack.addAll(node.getElseBody());
-  }
-
-  private int getNumChildren(ASTNode node){
-    int numChildren = 0;
-    ASTNode childNode = node.getChild();
-    while(childNode!=null){
-      numChildren++;
-      childNode = childNode.getSibling();
-    }
-    return numChildren;
+      pc = code[pc];
   }
   
   private void printNodeValue(ASTNode rand){
@@ -601,28 +708,4 @@ public class CSEMachine{
     System.out.print(evaluationResult);
   }
 
-  // Note how this list is different from the one defined in Scanner.java
-  private boolean isReservedIdentifier(String value){
-    switch(value){
-      case "Isinteger":
-      case "Isstring":
-      case "Istuple":
-      case "Isdummy":
-      case "Istruthvalue":
-      case "Isfunction":
-      case "ItoS":
-      case "Order":
-      case "Conc":
-      case "conc": //typos
-      case "Stern":
-      case "Stem":
-      case "Null":
-      case "Print":
-      case "print": //typos
-      case "neg":
-        return true;
-    }
-    return false;
-  }
-
 }
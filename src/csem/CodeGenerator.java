@@ -0,0 +1,303 @@
+package csem;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Stack;
+
+import ast.ASTNode;
+import ast.ASTNodeType;
+
+/**
+ * Compiles the bodies of a program's deltas to instructions (see Opcode), which the CSE machine
+ * runs with a program counter instead of copying a body on to a control stack each time the
+ * delta is applied.
+ *
+ * The instructions follow the order the control stack would be popped in: a body from the top
+ * of its stack down, and a Beta as a BRANCH to the code of its then body, which ends with a
+ * JUMP over the code of its else body. Entering a delta or a branch then only sets the program
+ * counter. The code and operands are kept in the Delta and shared by all its closures.
+ *
+ * An application whose rand is a tau, such as f (x, y), compiles to a CALL of the tau's
+ * elements rather than a TUPLE and a GAMMA, so that a callee binding that many variables gets
+ * them without a tuple being made (see {@link #findCalls}).
+ */
+public class CodeGenerator{
+  private int[] code = new int[16];
+  private int size;
+  private int gammaRun = -1; //address of the first of the last GAMMAs emitted in a row
+  private List<ASTNode> operands = new ArrayList<ASTNode>();
+  private ArrayDeque<Delta> pendingDeltas; //the deltas found in bodies compiled so far
+
+  /**
+   * A body being compiled. The body of a Beta knows where the Beta's BRANCH is, to fill in its
+   * addresses once the body is done.
+   */
+  private static class PendingBody{
+    Stack<ASTNode> body;
+    int[] calls; //see findCalls
+    int next; //index of the next element to compile, counting down from the top
+    Beta beta;
+    int branch;
+    boolean thenBody;
+
+    PendingBody(Stack<ASTNode> body, Beta beta, int branch, boolean thenBody){
+      this.body = body;
+      calls = findCalls(body);
+      next = body.size()-1;
+      this.beta = beta;
+      this.branch = branch;
+      this.thenBody = thenBody;
+    }
+  }
+
+  private CodeGenerator(ArrayDeque<Delta> pendingDeltas){
+    this.pendingDeltas = pendingDeltas;
+  }
+
+  /**
+   * Compiles rootDelta and every delta in its body, and in theirs.
+   */
+  public static void compile(Delta rootDelta){
+    ArrayDeque<Delta> pendingDeltas = new ArrayDeque<Delta>();
+    pendingDeltas.push(rootDelta);
+    while(!pendingDeltas.isEmpty()){
+      Delta delta = pendingDeltas.pop();
+      CodeGenerator generator = new CodeGenerator(pendingDeltas);
+      generator.compileBody(delta.getBody());
+      generator.emit(Opcode.RETURN);
+      delta.setCode(Arrays.copyOf(generator.code, generator.size), generator.operands.toArray(new ASTNode[generator.operands.size()]));
+    }
+  }
+
+  private void compileBody(Stack<ASTNode> deltaBody){
+    //conditionals nest as deep as the program does, so the bodies of Betas wait on a stack
+    ArrayDeque<PendingBody> pendingBodies = new ArrayDeque<PendingBody>();
+    pendingBodies.push(new PendingBody(deltaBody, null, -1, false));
+    while(!pendingBodies.isEmpty()){
+      PendingBody pendingBody = pendingBodies.peek();
+      if(pendingBody.next>=0){
+        int index = pendingBody.next--;
+        ASTNode node = pendingBody.body.get(index);
+        if(pendingBody.calls!=null && pendingBody.calls[index]!=0){
+          if(pendingBody.calls[index]>0)
+            emit(Opcode.CALL, pendingBody.calls[index]);
+          continue; //the tau of a CALL leaves its elements on the stack
+        }
+        if(node instanceof Beta){
+          int branch = emit(Opcode.BRANCH, 0, 0);
+          pendingBodies.push(new PendingBody(((Beta)node).getThenBody(), (Beta)node, branch, true));
+        }
+        else
+          compileNode(node);
+        continue;
+      }
+
+      pendingBodies.pop();
+      if(pendingBody.beta==null)
+        continue;
+      if(pendingBody.thenBody){
+        //the BRANCH's end address holds the JUMP's until the end is known
+        int jump = emit(Opcode.JUMP, 0); //emitting may replace code, so not in the assignment below
+        code[pendingBody.branch+2] = jump;
+        code[pendingBody.branch+1] = size;
+        pendingBodies.push(new PendingBody(pendingBody.beta.getElseBody(), pendingBody.beta, pendingBody.branch, false));
+      }
+      else{
+        code[code[pendingBody.branch+2]+1] = size;
+        code[pendingBody.branch+2] = size;
+      }
+    }
+  }
+
+  private void compileNode(ASTNode node){
+    switch(node.getType()){
+      case IDENTIFIER:
+        if(((Identifier)node).getDepth()==Identifier.BUILTIN)
+          emit(Opcode.PUSH, addOperand(Builtin.create(((Identifier)node).getSlot(), node.getSourceLineNumber())));
+        else
+          emit(Opcode.IDENTIFIER, addOperand(node));
+        break;
+      case NIL:
+      case TAU:
+        emit(Opcode.TUPLE, getNumChildren(node));
+        break;
+      case GAMMA:
+        emitGamma();
+        break;
+      case DELTA:
+        pendingDeltas.push((Delta)node);
+        emit(Opcode.CLOSURE, addOperand(node));
+        break;
+      case PLUS:
+        emit(Opcode.PLUS);
+        break;
+      case MINUS:
+        emit(Opcode.MINUS);
+        break;
+      case MULT:
+        emit(Opcode.MULT);
+        break;
+      case DIV:
+        emit(Opcode.DIV);
+        break;
+      case EXP:
+        emit(Opcode.EXP);
+        break;
+      case LS:
+        emit(Opcode.LS);
+        break;
+      case LE:
+        emit(Opcode.LE);
+        break;
+      case GR:
+        emit(Opcode.GR);
+        break;
+      case GE:
+        emit(Opcode.GE);
+        break;
+      case EQ:
+        emit(Opcode.EQ);
+        break;
+      case NE:
+        emit(Opcode.NE);
+        break;
+      case OR:
+        emit(Opcode.OR);
+        break;
+      case AND:
+        emit(Opcode.AND);
+        break;
+      case AUG:
+        emit(Opcode.AUG);
+        break;
+      case NOT:
+        emit(Opcode.NOT);
+        break;
+      case NEG:
+        emit(Opcode.NEG);
+        break;
+      default:
+        //a value: literals, Y*, and whatever else standardizing leaves for the machine to push
+        emit(Opcode.PUSH, addOperand(node));
+        break;
+    }
+  }
+
+  /**
+   * Finds the gammas of a body whose rand is a tau of n elements, n>1. For such a gamma the
+   * result holds n at the gamma's index and -1 at the tau's, and 0 everywhere else.
+   *
+   * A body lists an expression with each node before its operands, the rator of a gamma first,
+   * so it is read from the top down keeping the index where each operand read so far starts.
+   * Returns null if the body is not one expression, which standardizing should never leave.
+   */
+  private static int[] findCalls(Stack<ASTNode> body){
+    int[] calls = new int[body.size()];
+    int[] operandStarts = new int[body.size()];
+    int numOperands = 0;
+    for(int i=body.size()-1;i>=0;--i){
+      ASTNode node = body.get(i);
+      int arity = getArity(node);
+      if(arity>numOperands)
+        return null;
+      if(node.getType()==ASTNodeType.GAMMA){
+        int rand = operandStarts[numOperands-2]; //the rator is the operand on top
+        int numElements = getNumChildren(body.get(rand));
+        if(body.get(rand).getType()==ASTNodeType.TAU && numElements>1){
+          calls[i] = numElements;
+          calls[rand] = -1;
+        }
+      }
+      numOperands -= arity;
+      operandStarts[numOperands++] = i;
+    }
+    return numOperands==1?calls:null;
+  }
+
+  private void emitGamma(){
+    //f a b c applies f and the closures it returns in a row, which the CSE machine can do at
+    //once if f is a chain of lambdas (see Delta), so each GAMMA counts the GAMMAs from it on
+    if(gammaRun<0 || gammaRun+code[gammaRun+1]*2!=size)
+      gammaRun = size;
+    for(int gamma=gammaRun;gamma<size;gamma+=2)
+      code[gamma+1]++;
+    emit(Opcode.GAMMA, 1);
+  }
+
+  //the number of operands a body element takes from the elements above it
+  private static int getArity(ASTNode node){
+    switch(node.getType()){
+      case GAMMA:
+      case PLUS:
+      case MINUS:
+      case MULT:
+      case DIV:
+      case EXP:
+      case LS:
+      case LE:
+      case GR:
+      case GE:
+      case EQ:
+      case NE:
+      case OR:
+      case AND:
+      case AUG:
+        return 2;
+      case NOT:
+      case NEG:
+      case BETA: //the condition; the arms are bodies of their own
+        return 1;
+      case NIL:
+      case TAU:
+        return getNumChildren(node);
+      default:
+        return 0;
+    }
+  }
+
+  private static int getNumChildren(ASTNode node){
+    int numChildren = 0;
+    ASTNode childNode = node.getChild();
+    while(childNode!=null){
+      numChildren++;
+      childNode = childNode.getSibling();
+    }
+    return numChildren;
+  }
+
+  private int addOperand(ASTNode operand){
+    operands.add(operand);
+    return operands.size()-1;
+  }
+
+  //each emit appends an instruction and returns its address
+  private int emit(int opcode){
+    ensureCapacity(1);
+    code[size] = opcode;
+    return size++;
+  }
+
+  private int emit(int opcode, int operand){
+    ensureCapacity(2);
+    code[size] = opcode;
+    code[size+1] = operand;
+    size += 2;
+    return size-2;
+  }
+
+  private int emit(int opcode, int operand1, int operand2){
+    ensureCapacity(3);
+    code[size] = opcode;
+    code[size+1] = operand1;
+    code[size+2] = operand2;
+    size += 3;
+    return size-3;
+  }
+
+  private void ensureCapacity(int length){
+    if(size+length>code.length)
+      code = Arrays.copyOf(code, Math.max(code.length*2, size+length));
+  }
+}
@@ -0,0 +1,345 @@
+package csem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import ast.ASTNode;
+import ast.ASTNodeType;
+import scanner.SymbolTable;
+
+/**
+ * Binary form of the delta structures AST.createDeltas() builds, so a program can be evaluated
+ * without scanning, parsing and standardizing it again. It is kept in ProgramCache, and in the
+ * compiled files "rpal20 -c" writes.
+ *
+ * A compiled file starts with {@link #MAGIC} and {@link #VERSION}, followed by the encoding.
+ * The encoding has four tables, each preceded by its length:
+ * <pre>
+ * constants: the text of every node value and bound variable, as UTF-8
+ * nodes:     type, value (constant index or -1), child, sibling (node indices or -1), line number
+ * deltas:    index, bound variables (constant indices, or -1 for none), body
+ * betas:     then body, else body
+ * </pre>
+ * A body is its entries from the bottom of the stack up, each a tag and the index of a node, a
+ * delta or a beta. The root delta is delta 0. The nodes are every ASTNode the bodies reach
+ * through child and sibling links, and they are linked the same way again when read, since
+ * the CSE machine walks the children of the nodes on its control stack.
+ */
+public class CompiledProgram{
+  /**
+   * Changes whenever the encoding, or the trees the front end builds, change. Programs written
+   * by another version must be compiled again.
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * First bytes of a compiled file. 0x89 cannot start a source file, as it is not a character
+   * RPAL source can begin with.
+   */
+  public static final int MAGIC = 0x8952504c; //0x89 "RPL"
+
+  private static final byte NODE = 0;
+  private static final byte DELTA = 1;
+  private static final byte BETA = 2;
+
+  private static final ASTNodeType[] nodeTypes = ASTNodeType.values();
+
+  private final List<String> constants = new ArrayList<String>();
+  private final Map<String, Integer> constantIndices = new HashMap<String, Integer>();
+  private final List<ASTNode> nodes = new ArrayList<ASTNode>();
+  private final Map<ASTNode, Integer> nodeIndices = new IdentityHashMap<ASTNode, Integer>();
+  private final List<Delta> deltas = new ArrayList<Delta>();
+  private final Map<Delta, Integer> deltaIndices = new IdentityHashMap<Delta, Integer>();
+  private final List<Beta> betas = new ArrayList<Beta>();
+  private final Map<Beta, Integer> betaIndices = new IdentityHashMap<Beta, Integer>();
+
+  private CompiledProgram(){
+  }
+
+  /**
+   * Encodes the deltas reachable from rootDelta. They must not have been evaluated yet, since
+   * evaluation relinks the nodes of their bodies.
+   */
+  public static byte[] write(Delta rootDelta){
+    CompiledProgram program = new CompiledProgram();
+    program.indexDelta(rootDelta);
+    //indexing a body adds the deltas and betas in it, so these lists grow while they are walked,
+    //and a delta found in a beta's body has a body to walk too
+    int indexedDeltas = 0;
+    int indexedBetas = 0;
+    while(indexedDeltas<program.deltas.size() || indexedBetas<program.betas.size()){
+      for(;indexedDeltas<program.deltas.size();++indexedDeltas)
+        program.indexBody(program.deltas.get(indexedDeltas).getBody());
+      for(;indexedBetas<program.betas.size();++indexedBetas){
+        program.indexBody(program.betas.get(indexedBetas).getThenBody());
+        program.indexBody(program.betas.get(indexedBetas).getElseBody());
+      }
+    }
+    for(Delta delta: program.deltas){
+      for(String boundVar: delta.getBoundVars()){
+        if(boundVar!=null) //a comma nested in a simultaneous definition binds no name
+          program.indexConstant(boundVar);
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(DataOutputStream out = new DataOutputStream(bytes)){
+      program.writeTables(out);
+    }
+    catch(IOException e){
+      throw new UncheckedIOException(e); //a ByteArrayOutputStream does not throw
+    }
+    return bytes.toByteArray();
+  }
+
+  private void indexBody(Stack<ASTNode> body){
+    for(ASTNode element: body){
+      if(element instanceof Delta)
+        indexDelta((Delta)element);
+      else if(element instanceof Beta)
+        indexBeta((Beta)element);
+      else
+        indexNodes(element);
+    }
+  }
+
+  private void indexDelta(Delta delta){
+    if(!deltaIndices.containsKey(delta)){
+      deltaIndices.put(delta, deltas.size());
+      deltas.add(delta);
+    }
+  }
+
+  private void indexBeta(Beta beta){
+    if(!betaIndices.containsKey(beta)){
+      betaIndices.put(beta, betas.size());
+      betas.add(beta);
+    }
+  }
+
+  private void indexNodes(ASTNode start){
+    //the node and everything it reaches through child and sibling links
+    ArrayDeque<ASTNode> pendingNodes = new ArrayDeque<ASTNode>();
+    pendingNodes.push(start);
+    while(!pendingNodes.isEmpty()){
+      ASTNode node = pendingNodes.pop();
+      if(nodeIndices.containsKey(node))
+        continue;
+      nodeIndices.put(node, nodes.size());
+      nodes.add(node);
+      if(node.getValue()!=null)
+        indexConstant(node.getValue());
+      if(node.getSibling()!=null)
+        pendingNodes.push(node.getSibling());
+      if(node.getChild()!=null)
+        pendingNodes.push(node.getChild());
+    }
+  }
+
+  private int indexConstant(String constant){
+    Integer index = constantIndices.get(constant);
+    if(index==null){
+      index = constants.size();
+      constantIndices.put(constant, index);
+      constants.add(constant);
+    }
+    return index;
+  }
+
+  private void writeTables(DataOutputStream out) throws IOException{
+    out.writeInt(constants.size());
+    for(String constant: constants){
+      byte[] utf8 = constant.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(utf8.length);
+      out.write(utf8);
+    }
+
+    out.writeInt(nodes.size());
+    for(ASTNode node: nodes){
+      out.writeByte(node.getType().ordinal());
+      out.writeInt(node.getValue()==null?-1:constantIndices.get(node.getValue()));
+      out.writeInt(node.getChild()==null?-1:nodeIndices.get(node.getChild()));
+      out.writeInt(node.getSibling()==null?-1:nodeIndices.get(node.getSibling()));
+      out.writeInt(node.getSourceLineNumber());
+    }
+
+    out.writeInt(deltas.size());
+    out.writeInt(betas.size());
+    for(Delta delta: deltas){
+      out.writeInt(delta.getIndex());
+      out.writeInt(delta.getBoundVars().size());
+      for(String boundVar: delta.getBoundVars())
+        out.writeInt(boundVar==null?-1:constantIndices.get(boundVar));
+      writeBody(out, delta.getBody());
+    }
+    for(Beta beta: betas){
+      writeBody(out, beta.getThenBody());
+      writeBody(out, beta.getElseBody());
+    }
+  }
+
+  private void writeBody(DataOutputStream out, Stack<ASTNode> body) throws IOException{
+    out.writeInt(body.size());
+    for(ASTNode element: body){
+      if(element instanceof Delta){
+        out.writeByte(DELTA);
+        out.writeInt(deltaIndices.get(element));
+      }
+      else if(element instanceof Beta){
+        out.writeByte(BETA);
+        out.writeInt(betaIndices.get(element));
+      }
+      else{
+        out.writeByte(NODE);
+        out.writeInt(nodeIndices.get(element));
+      }
+    }
+  }
+
+  /**
+   * Writes the deltas reachable from rootDelta to a compiled file.
+   */
+  public static void writeFile(Delta rootDelta, String fileName) throws IOException{
+    byte[] program = write(rootDelta);
+    try(DataOutputStream out = new DataOutputStream(Files.newOutputStream(Paths.get(fileName)))){
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.write(program);
+    }
+  }
+
+  /**
+   * Tells whether the buffer holds a compiled file rather than source text.
+   */
+  public static boolean isCompiledFile(ByteBuffer contents){
+    return contents.limit()>=4 && contents.getInt(0)==MAGIC;
+  }
+
+  /**
+   * Returns the root delta of a compiled file. Throws IllegalArgumentException if the file was
+   * written by another version or is damaged.
+   */
+  public static Delta readFile(ByteBuffer contents){
+    ByteBuffer in = contents.duplicate();
+    if(in.limit()<8 || in.getInt()!=MAGIC)
+      throw new IllegalArgumentException("not a compiled RPAL program");
+    int version = in.getInt();
+    if(version!=VERSION)
+      throw new IllegalArgumentException("compiled program has version "+version+", expected "+VERSION+"; compile it again");
+    return read(in);
+  }
+
+  /**
+   * Decodes what {@link #write(Delta)} wrote, from the buffer's position on, and returns the
+   * root delta. Throws IllegalArgumentException if the buffer does not hold a valid program.
+   */
+  public static Delta read(ByteBuffer in){
+    try{
+      return readTables(in);
+    }
+    catch(RuntimeException e){ //a truncated buffer, or an index out of range
+      throw new IllegalArgumentException("malformed compiled program", e);
+    }
+  }
+
+  private static Delta readTables(ByteBuffer in){
+    String[] constants = new String[in.getInt()];
+    for(int i=0;i<constants.length;++i){
+      byte[] utf8 = new byte[in.getInt()];
+      in.get(utf8);
+      constants[i] = new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    int nodeCount = in.getInt();
+    ASTNode[] nodes = new ASTNode[nodeCount];
+    int[] links = new int[2*nodeCount]; //child and sibling of every node, linked once all exist
+    for(int i=0;i<nodeCount;++i){
+      ASTNodeType type = nodeTypes[in.get()];
+      int value = in.getInt();
+      ASTNode node = Delta.createBodyNode(type, value>=0?constants[value]:null);
+      node.setType(type);
+      if(value>=0){
+        node.setValue(constants[value]);
+        setSymbol(node);
+      }
+      links[2*i] = in.getInt();
+      links[2*i+1] = in.getInt();
+      node.setSourceLineNumber(in.getInt());
+      nodes[i] = node;
+    }
+    for(int i=0;i<nodeCount;++i){
+      if(links[2*i]>=0)
+        nodes[i].setChild(nodes[links[2*i]]);
+      if(links[2*i+1]>=0)
+        nodes[i].setSibling(nodes[links[2*i+1]]);
+    }
+
+    Delta[] deltas = new Delta[in.getInt()];
+    Beta[] betas = new Beta[in.getInt()];
+    for(int i=0;i<deltas.length;++i)
+      deltas[i] = new Delta();
+    for(int i=0;i<betas.length;++i)
+      betas[i] = new Beta();
+    for(Delta delta: deltas){
+      delta.setIndex(in.getInt());
+      int boundVarCount = in.getInt();
+      for(int i=0;i<boundVarCount;++i){
+        int boundVar = in.getInt();
+        delta.addBoundVars(boundVar>=0?constants[boundVar]:null);
+      }
+      delta.setBody(readBody(in, nodes, deltas, betas));
+    }
+    for(Beta beta: betas){
+      beta.setThenBody(readBody(in, nodes, deltas, betas));
+      beta.setElseBody(readBody(in, nodes, deltas, betas));
+    }
+    return deltas[0];
+  }
+
+  private static Stack<ASTNode> readBody(ByteBuffer in, ASTNode[] nodes, Delta[] deltas, Beta[] betas){
+    Stack<ASTNode> body = new Stack<ASTNode>();
+    int size = in.getInt();
+    body.ensureCapacity(size);
+    for(int i=0;i<size;++i){
+      byte tag = in.get();
+      int index = in.getInt();
+      if(tag==DELTA)
+        body.push(deltas[index]);
+      else if(tag==BETA)
+        body.push(betas[index]);
+      else if(tag==NODE)
+        body.push(nodes[index]);
+      else
+        throw new IllegalArgumentException("unknown body entry "+tag);
+    }
+    return body;
+  }
+
+  private static void setSymbol(ASTNode node){
+    //the parser gives these nodes the SymbolTable id of their text
+    switch(node.getType()){
+      case IDENTIFIER:
+      case TRUE:
+      case FALSE:
+      case NIL:
+      case DUMMY:
+        node.setSymbol(SymbolTable.intern(node.getValue()));
+        break;
+      default:
+        break;
+    }
+  }
+}
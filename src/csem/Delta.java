@@ -8,30 +8,53 @@ import ast.ASTNode;
 import ast.ASTNodeType;
 
 /**
- * Represents a lambda closure.
+ * Represents a lambda closure. The deltas in a program's bodies are its code; pushing one on
+ * to the value stack (RULE 2) makes a closure sharing that code, see {@link #createClosure}.
  *
+ * A lambda whose body is nothing but a lambda of one variable, as fn x. fn y. E, which is what
+ * f x y = E standardizes to, is the head of a chain of lambdas (see {@link #setChain}). The
+ * whole chain binds its variables in one environment, so applying its head to all of them can
+ * skip making the closures in between.
  */
 public class Delta extends ASTNode{
   private List<String> boundVars;
   private Environment linkedEnv; //environment in effect when this Delta was pushed on to the value stack
   private Stack<ASTNode> body;
   private int index;
+  private int[] code; //the body compiled by CodeGenerator
+  private ASTNode[] operands;
+  private List<String> frameNames; //the variables of the chain this delta is in, if it is in one
+  private int frameSlot; //the slot of frameNames this delta binds
+  private int chainLength = 1; //the number of lambdas in the chain from this one on
+  private Delta chainEnd = this; //the last lambda of the chain, whose body is not a lambda
   
   public Delta(){
     setType(ASTNodeType.DELTA);
     boundVars = new ArrayList<String>();
   }
   
-  public Delta accept(NodeCopier nodeCopier){
-    return nodeCopier.copy(this);
-  }
-  
   //used if the program evaluation results in a partial application
   @Override
   public String getValue(){
     return "[lambda closure: "+boundVars.get(0)+": "+index+"]";
   }
   
+  /**
+   * Creates the node a delta body holds for a node of the given type and text, without setting
+   * its fields: an Identifier for an identifier, for Resolver to fill in, an IntValue for an
+   * integer, so that it is parsed only once, and an ASTNode for anything else.
+   */
+  public static ASTNode createBodyNode(ASTNodeType type, String value){
+    switch(type){
+      case IDENTIFIER:
+        return new Identifier();
+      case INTEGER:
+        return IntValue.parseLiteral(value);
+      default:
+        return new ASTNode();
+    }
+  }
+  
   //get the list of bound variables and add a new bound variable to the list
   public List<String> getBoundVars(){
     return boundVars;
@@ -54,6 +77,52 @@ public class Delta extends ASTNode{
   public void setBody(Stack<ASTNode> body){
     this.body = body;
   }
+  public int[] getCode(){
+    return code;
+  }
+
+  public ASTNode[] getOperands(){
+    return operands;
+  }
+
+  public void setCode(int[] code, ASTNode[] operands){
+    this.code = code;
+    this.operands = operands;
+  }
+
+  /**
+   * Makes this delta the one in the given slot of a chain of single-variable lambdas, whose
+   * variables are frameNames. The head of the chain (slot 0) makes an environment of them all
+   * when applied, and every other delta of the chain binds its slot in a copy of that made by
+   * the one before it, since its closure is made in that environment.
+   */
+  public void setChain(List<String> frameNames, int frameSlot, Delta chainEnd){
+    this.frameNames = frameNames;
+    this.frameSlot = frameSlot;
+    chainLength = frameNames.size()-frameSlot;
+    this.chainEnd = chainEnd;
+  }
+
+  /**
+   * Returns the variables of the environment applying this delta binds in: its own bound
+   * variables, or those of the chain it is in.
+   */
+  public List<String> getFrameNames(){
+    return frameNames!=null?frameNames:boundVars;
+  }
+
+  public int getFrameSlot(){
+    return frameSlot;
+  }
+
+  public int getChainLength(){
+    return chainLength;
+  }
+
+  public Delta getChainEnd(){
+    return chainEnd;
+  }
+
    //get and set the index value of the Delta node.
   public int getIndex(){
     return index;
@@ -63,6 +132,26 @@ public class Delta extends ASTNode{
     this.index = index;
   }
   
+  /**
+   * Returns a closure of this delta over env: a delta with the same body, code, bound variables,
+   * chain and index, which are shared rather than copied, and env as its linked environment.
+   */
+  public Delta createClosure(Environment env){
+    Delta closure = new Delta();
+    closure.boundVars = boundVars;
+    closure.body = body;
+    closure.index = index;
+    closure.code = code;
+    closure.operands = operands;
+    closure.frameNames = frameNames;
+    closure.frameSlot = frameSlot;
+    closure.chainLength = chainLength;
+    closure.chainEnd = chainEnd;
+    closure.linkedEnv = env;
+    closure.setSourceLineNumber(getSourceLineNumber());
+    return closure;
+  }
+  
   //get and set the linked environment associated with the Delta node
   public Environment getLinkedEnv(){
     return linkedEnv;
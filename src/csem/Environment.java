@@ -1,52 +1,159 @@
 package csem;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 import ast.ASTNode;
 
+/**
+ * The bindings made by applying a delta: slot i holds the value of the delta's i-th bound
+ * variable. Resolver gives every identifier the depth and slot of its binding before the
+ * program runs, so a lookup follows a fixed number of parent links and reads a slot.
+ *
+ * Almost every delta binds one variable, and every call makes an environment, so the slots are
+ * fields rather than an array: an environment of one slot is this class, with a single field,
+ * and a larger one is a WideEnvironment, which keeps slots 1 to 3 in fields and only any after
+ * them in an array. {@link #create} picks the kind from the number of variables. There is one
+ * subclass so that reading a slot past the first stays a call the JIT can inline.
+ */
 public class Environment{
-  private Environment parent;
-  private Map<String, ASTNode> nameValueMap;
-  
-  public Environment(){
-    nameValueMap = new HashMap<String, ASTNode>();
+  private final Environment parent;
+  private final List<String> names;
+  private ASTNode value0;
+
+  private Environment(Environment parent, List<String> names){
+    this.parent = parent;
+    this.names = names;
+  }
+
+  /**
+   * Creates an environment with one empty slot for each of names, the bound variables of the
+   * delta being applied.
+   */
+  public static Environment create(Environment parent, List<String> names){
+    if(names.size()==1)
+      return new Environment(parent, names);
+    return new WideEnvironment(parent, names);
   }
-  
+
   //retrieve the parent environment associated with the current environment instance
-  public Environment getParent(){       
+  public Environment getParent(){
     return parent;
   }
 
- //set the parent environment for the current environment instance
-  public void setParent(Environment parent){   
-    this.parent = parent;
+  public void bind(int slot, ASTNode value){
+    if(slot==0)
+      value0 = value;
+    else
+      bindOther(slot, value);
+  }
+
+  ASTNode get(int slot){
+    return slot==0?value0:getOther(slot);
+  }
+
+  //slot 0 is in every environment, and the others only in a WideEnvironment
+  void bindOther(int slot, ASTNode value){
+    throw new IndexOutOfBoundsException(Integer.toString(slot));
+  }
+
+  ASTNode getOther(int slot){
+    throw new IndexOutOfBoundsException(Integer.toString(slot));
+  }
+
+  /**
+   * Returns a new environment with the same parent and bindings as this one, for the next
+   * lambda of a chain to bind its slot in (see Delta).
+   */
+  public Environment copy(){
+    Environment copy = create(parent, names);
+    for(int i=0;i<names.size();++i)
+      copy.bind(i, get(i));
+    return copy;
   }
-  
+
+  /**
+   * Returns the value in the given slot of the environment depth parents up from this
+   * one. A slot left null (a tuple with fewer elements than the delta has bound variables) does
+   * not bind its name, which is then looked up from that environment's parent on.
+   *
+   * @return the value, or null if no binding was found
+   */
+  public ASTNode lookup(int depth, int slot){
+    Environment env = this;
+    for(int i=0;i<depth;++i)
+      env = env.parent;
+
+    ASTNode retValue = env.get(slot);
+    if(retValue!=null)
+      return retValue;
+
+    if(env.parent!=null)
+      return env.parent.lookup(env.names.get(slot));
+    else
+      return null;
+  }
+
   /**
    * Tries to find the binding of the given key in the mappings of this Environment's
    * inheritance hierarchy, starting with the Environment this method is invoked on.
-   * 
+   *
    * @param key key the mapping of which to find
    * @return ASTNode that corresponds to the mapping of the key passed in as an argument
    *         or null if no mapping was found
    */
   public ASTNode lookup(String key){
-    ASTNode retValue = null;
-    Map<String, ASTNode> map = nameValueMap;
-    
-    retValue = map.get(key);
-    
-    if(retValue!=null)
-      return retValue.accept(new NodeCopier());
-    
-    if(parent!=null)
-      return parent.lookup(key);
-    else
-      return null;
+    for(Environment env = this; env!=null; env = env.parent){
+      int slot = env.names.lastIndexOf(key); //a later bound variable of the same name hides an earlier one
+      if(slot>=0 && env.get(slot)!=null)
+        return env.get(slot);
+    }
+    return null;
   }
-  
-  public void addMapping(String key, ASTNode value){
-    nameValueMap.put(key, value);
+
+  /**
+   * An environment of more than one slot: slots 1 to 3 in fields, and any after them in an array.
+   */
+  private static final class WideEnvironment extends Environment{
+    private ASTNode value1;
+    private ASTNode value2;
+    private ASTNode value3;
+    private final ASTNode[] moreValues; //slots 4 on, if there are any
+
+    WideEnvironment(Environment parent, List<String> names){
+      super(parent, names);
+      moreValues = names.size()>4?new ASTNode[names.size()-4]:null;
+    }
+
+    @Override
+    void bindOther(int slot, ASTNode value){
+      switch(slot){
+        case 1:
+          value1 = value;
+          break;
+        case 2:
+          value2 = value;
+          break;
+        case 3:
+          value3 = value;
+          break;
+        default:
+          moreValues[slot-4] = value;
+          break;
+      }
+    }
+
+    @Override
+    ASTNode getOther(int slot){
+      switch(slot){
+        case 1:
+          return value1;
+        case 2:
+          return value2;
+        case 3:
+          return value3;
+        default:
+          return moreValues[slot-4];
+      }
+    }
   }
 }
@@ -10,9 +10,13 @@ import ast.ASTNodeType;
  * hence will not lead to our evaluating the fixed point again (what happens when
  * we replace YF with F (YF) i.e., Eta with Delta Eta)). If the source code creates
  * an infinite recursion, none of these tricks will save us.
+ *
+ * When F is fn f. fn x. E, F (YF) only makes a closure, so the CSE machine makes it once, in an
+ * environment binding f to this Eta, and applies it directly (see {@link #getClosure}).
  */
 public class Eta extends ASTNode{
   private Delta delta;
+  private Delta closure; //F applied to this Eta, if that is known not to need evaluating each time
   
   public Eta(){
     setType(ASTNodeType.ETA);
@@ -24,10 +28,6 @@ public class Eta extends ASTNode{
     return "[eta closure: "+delta.getBoundVars().get(0)+": "+delta.getIndex()+"]";
   }
   
-  public Eta accept(NodeCopier nodeCopier){
-    return nodeCopier.copy(this);
-  }
-
   public Delta getDelta(){
     return delta;
   }
@@ -35,5 +35,17 @@ public class Eta extends ASTNode{
   public void setDelta(Delta delta){
     this.delta = delta;
   }
+
+  /**
+   * Returns the closure applying this Eta amounts to applying, or null if applying it has to
+   * apply F to it first (RULE 13).
+   */
+  public Delta getClosure(){
+    return closure;
+  }
+
+  public void setClosure(Delta closure){
+    this.closure = closure;
+  }
   
 }
@@ -0,0 +1,41 @@
+package csem;
+
+import ast.ASTNode;
+import ast.ASTNodeType;
+
+/**
+ * An identifier in a delta body, with where its value is found when the body is evaluated, as
+ * worked out by Resolver: slot {@link #getSlot()} of the environment {@link #getDepth()} parents
+ * up from the one the body is evaluated in, or a builtin, or nowhere.
+ */
+public class Identifier extends ASTNode{
+  public static final int BUILTIN = -1; //bound by the primitive environment, to the Builtin in the slot
+  public static final int UNDECLARED = -2; //bound by nothing
+
+  private int depth = UNDECLARED;
+  private int slot;
+
+  public Identifier(){
+    setType(ASTNodeType.IDENTIFIER);
+  }
+
+  /**
+   * Returns how many parents up the environment binding this identifier is, or BUILTIN or
+   * UNDECLARED.
+   */
+  public int getDepth(){
+    return depth;
+  }
+
+  public void setDepth(int depth){
+    this.depth = depth;
+  }
+
+  public int getSlot(){
+    return slot;
+  }
+
+  public void setSlot(int slot){
+    this.slot = slot;
+  }
+}
@@ -0,0 +1,59 @@
+package csem;
+
+import ast.ASTNode;
+import ast.ASTNodeType;
+
+/**
+ * An integer value, held as an int rather than as text. Integer literals become IntValues when
+ * their delta body is built, so they are parsed once, and arithmetic works on the ints.
+ */
+public class IntValue extends ASTNode{
+  private static final int CACHE_LOW = -128;
+  private static final int CACHE_HIGH = 1024;
+  private static final IntValue[] cache = new IntValue[CACHE_HIGH-CACHE_LOW];
+
+  static{
+    for(int i=0;i<cache.length;++i)
+      cache[i] = new IntValue(CACHE_LOW+i);
+  }
+
+  private final int intValue;
+
+  public IntValue(int intValue){
+    setType(ASTNodeType.INTEGER);
+    this.intValue = intValue;
+  }
+
+  /**
+   * Returns an IntValue of the given int. Small ones are shared, as values are never changed.
+   */
+  public static IntValue valueOf(int intValue){
+    if(intValue>=CACHE_LOW && intValue<CACHE_HIGH)
+      return cache[intValue-CACHE_LOW];
+    return new IntValue(intValue);
+  }
+
+  /**
+   * Returns the node for an integer literal with the given text: an IntValue, or a plain node
+   * keeping the text if it does not fit in an int (using it then fails, as it always has).
+   */
+  public static ASTNode parseLiteral(String text){
+    try{
+      return new IntValue(Integer.parseInt(text));
+    }
+    catch(NumberFormatException e){
+      return new ASTNode();
+    }
+  }
+
+  public int getIntValue(){
+    return intValue;
+  }
+
+  //a literal prints as it was written
+  @Override
+  public String getValue(){
+    String text = super.getValue();
+    return text!=null?text:Integer.toString(intValue);
+  }
+}
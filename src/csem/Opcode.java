@@ -0,0 +1,62 @@
+package csem;
+
+/**
+ * The instructions CodeGenerator compiles delta bodies to. An instruction is its opcode followed
+ * by its operands, all ints in the delta's code array. Operands named k index the delta's
+ * operand table; addresses index its code.
+ */
+public final class Opcode{
+  public static final int PUSH = 0; //k: push operand k, a value node of the body or a Builtin
+  public static final int IDENTIFIER = 1; //k: push the value of Identifier k (RULE 1)
+  public static final int CLOSURE = 2; //k: push a closure of Delta k over the current environment (RULE 2)
+  public static final int TUPLE = 3; //n: pop n values into a tuple (RULE 9)
+  public static final int GAMMA = 4; //n: apply the top value to the one below it (RULE 3); n counts this GAMMA and those right after it
+  public static final int BRANCH = 5; //else, end: pop a truthvalue, go on if true, jump to else if false (RULE 8)
+  public static final int JUMP = 6; //address
+  public static final int RETURN = 7; //the body is done
+
+  //RULE 6
+  public static final int PLUS = 8;
+  public static final int MINUS = 9;
+  public static final int MULT = 10;
+  public static final int DIV = 11;
+  public static final int EXP = 12;
+  public static final int LS = 13;
+  public static final int LE = 14;
+  public static final int GR = 15;
+  public static final int GE = 16;
+  public static final int EQ = 17;
+  public static final int NE = 18;
+  public static final int OR = 19;
+  public static final int AND = 20;
+  public static final int AUG = 21;
+
+  //RULE 7
+  public static final int NOT = 22;
+  public static final int NEG = 23;
+
+  public static final int CALL = 24; //n: apply the top value to a tuple of the n values below it (RULE 3)
+
+  private Opcode(){
+  }
+
+  /**
+   * Returns the number of ints the instruction with the given opcode takes up.
+   */
+  public static int getLength(int opcode){
+    switch(opcode){
+      case PUSH:
+      case IDENTIFIER:
+      case CLOSURE:
+      case TUPLE:
+      case GAMMA:
+      case JUMP:
+      case CALL:
+        return 2;
+      case BRANCH:
+        return 3;
+      default:
+        return 1;
+    }
+  }
+}
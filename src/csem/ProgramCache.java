@@ -0,0 +1,243 @@
+package csem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of compiled programs (see CompiledProgram), so that running a source file that
+ * did not change skips scanning, parsing and standardizing it.
+ *
+ * An entry is keyed by the SHA-256 of CompiledProgram.VERSION and the source bytes, and is one
+ * file named after the key, read with a single read. Several JVMs can share a cache directory:
+ * entries are written to a temporary file and renamed into place, so a reader sees a whole entry
+ * or none, and an entry that does not check out (wrong key, wrong length, wrong CRC) is treated
+ * as a miss. The directory is kept under a size limit by deleting the least recently used
+ * entries; a hit refreshes the entry's modification time.
+ *
+ * The cache is in ~/.cache/rpal unless the rpal.cache.dir system property says otherwise, holds
+ * at most 64 MiB unless rpal.cache.size gives another number of bytes, and is off when
+ * rpal.cache is false. Any I/O failure makes the cache step aside, never the program fail.
+ */
+public class ProgramCache{
+  private static final int MAGIC = 0x52504c43; //"RPLC"
+  private static final String SUFFIX = ".rplc";
+  private static final String LOCK_FILE = "evict.lock";
+  private static final long DEFAULT_MAX_SIZE = 64L<<20;
+  private static final int HEADER_SIZE = 4+4+32+4+8; //magic, version, key, payload length, CRC
+
+  private final Path directory;
+  private final long maxSize;
+
+  public ProgramCache(Path directory, long maxSize){
+    this.directory = directory;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns the cache the system properties describe, or null if caching is off.
+   */
+  public static ProgramCache getDefault(){
+    if(!Boolean.parseBoolean(System.getProperty("rpal.cache", "true")))
+      return null;
+    String directory = System.getProperty("rpal.cache.dir");
+    if(directory==null)
+      directory = Paths.get(System.getProperty("user.home"), ".cache", "rpal").toString();
+    long maxSize = DEFAULT_MAX_SIZE;
+    try{
+      maxSize = Long.parseLong(System.getProperty("rpal.cache.size", String.valueOf(DEFAULT_MAX_SIZE)));
+    }
+    catch(NumberFormatException e){
+      //keep the default
+    }
+    return new ProgramCache(Paths.get(directory), maxSize);
+  }
+
+  /**
+   * Returns the key of the given source text; the buffer's position is not changed.
+   */
+  public byte[] getKey(ByteBuffer source){
+    try{
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(("rpal20 compiled program "+CompiledProgram.VERSION).getBytes(StandardCharsets.UTF_8));
+      digest.update(source.duplicate());
+      return digest.digest();
+    }
+    catch(NoSuchAlgorithmException e){
+      throw new IllegalStateException(e); //every Java platform has SHA-256
+    }
+  }
+
+  /**
+   * Returns the root delta of the program stored under key, or null if there is none.
+   */
+  public Delta get(byte[] key){
+    Path entry = getEntryPath(key);
+    ByteBuffer contents;
+    try(FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)){
+      long size = channel.size();
+      if(size<HEADER_SIZE || size>Integer.MAX_VALUE)
+        return discard(entry);
+      contents = ByteBuffer.allocate((int)size);
+      while(contents.hasRemaining() && channel.read(contents)>=0);
+      contents.flip();
+    }
+    catch(IOException e){ //no such entry, or it was just evicted
+      return null;
+    }
+
+    if(contents.getInt()!=MAGIC || contents.getInt()!=CompiledProgram.VERSION)
+      return discard(entry);
+    byte[] storedKey = new byte[key.length];
+    contents.get(storedKey);
+    int payloadLength = contents.getInt();
+    long crc = contents.getLong();
+    if(!Arrays.equals(storedKey, key) || payloadLength!=contents.remaining())
+      return discard(entry);
+    CRC32 check = new CRC32();
+    check.update(contents.duplicate());
+    if(check.getValue()!=crc)
+      return discard(entry);
+
+    Delta rootDelta;
+    try{
+      rootDelta = CompiledProgram.read(contents);
+    }
+    catch(IllegalArgumentException e){
+      return discard(entry);
+    }
+    try{
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+    catch(IOException e){
+      //only its place in the eviction order is lost
+    }
+    return rootDelta;
+  }
+
+  /**
+   * Stores the program rooted at rootDelta under key. Must be called before the program is
+   * evaluated.
+   */
+  public void put(byte[] key, Delta rootDelta){
+    Path temporary = null;
+    try{
+      byte[] payload = CompiledProgram.write(rootDelta);
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+      ByteBuffer contents = ByteBuffer.allocate(HEADER_SIZE+payload.length);
+      contents.putInt(MAGIC);
+      contents.putInt(CompiledProgram.VERSION);
+      contents.put(key);
+      contents.putInt(payload.length);
+      contents.putLong(crc.getValue());
+      contents.put(payload);
+      contents.flip();
+
+      Files.createDirectories(directory);
+      temporary = Files.createTempFile(directory, "tmp-", ".part");
+      try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)){
+        while(contents.hasRemaining())
+          channel.write(contents);
+      }
+      Files.move(temporary, getEntryPath(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      temporary = null;
+      evict();
+    }
+    catch(AtomicMoveNotSupportedException e){
+      //readers could see a partly written entry, so there is none
+    }
+    catch(IOException|RuntimeException e){
+      //the program still runs, it is just not cached; a program the encoding cannot hold
+      //included, so that a bug here never keeps one from running
+    }
+    finally{
+      if(temporary!=null){
+        try{
+          Files.deleteIfExists(temporary);
+        }
+        catch(IOException e){
+          //left for eviction to delete
+        }
+      }
+    }
+  }
+
+  private Path getEntryPath(byte[] key){
+    StringBuilder name = new StringBuilder();
+    for(byte b: key)
+      name.append(String.format("%02x", b));
+    return directory.resolve(name.append(SUFFIX).toString());
+  }
+
+  private Delta discard(Path entry){
+    try{
+      Files.deleteIfExists(entry);
+    }
+    catch(IOException e){
+      //another JVM may be reading it; it stays a miss
+    }
+    return null;
+  }
+
+  private void evict() throws IOException{
+    /*
+     * Deletes the least recently used files until the directory fits in maxSize. Only one JVM
+     * evicts at a time; the others skip it, as the one holding the lock does the same work.
+     */
+    try(FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = lockChannel.tryLock()){
+      if(lock==null)
+        return;
+      List<Path> files = new ArrayList<Path>();
+      List<FileTime> times = new ArrayList<FileTime>();
+      long totalSize = 0;
+      try(DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*{"+SUFFIX+",.part}")){
+        for(Path file: entries){
+          try{
+            totalSize += Files.size(file);
+            files.add(file);
+            times.add(Files.getLastModifiedTime(file));
+          }
+          catch(IOException e){
+            //deleted while listing
+          }
+        }
+      }
+      if(totalSize<=maxSize)
+        return;
+
+      Integer[] order = new Integer[files.size()];
+      for(int i=0;i<order.length;++i)
+        order[i] = i;
+      Arrays.sort(order, (a, b) -> times.get(a).compareTo(times.get(b)));
+      for(int i=0;i<order.length && totalSize>maxSize;++i){
+        Path file = files.get(order[i]);
+        try{
+          long size = Files.size(file);
+          if(Files.deleteIfExists(file))
+            totalSize -= size;
+        }
+        catch(IOException e){
+          //deleted by someone else
+        }
+      }
+    }
+  }
+}
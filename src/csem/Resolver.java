@@ -0,0 +1,113 @@
+package csem;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+import ast.ASTNode;
+
+/**
+ * Resolves every identifier in a program's delta bodies to where its value will be, so the
+ * CSE machine does not look names up while it evaluates.
+ *
+ * A delta's body is evaluated in a new environment holding the delta's bound variables, whose
+ * parent is the environment the delta was pushed in (RULE 2), which is the one the body holding
+ * the delta is evaluated in. The environments an identifier can see are therefore those of the
+ * deltas it is nested in, innermost first, ending with the primitive environment the root
+ * delta is evaluated in. An identifier bound by the delta n levels out is in slot i of the
+ * environment n parents up, where i is the position of the last bound variable of that name, as
+ * a later binding of a name hides an earlier one. An identifier bound by the primitive
+ * environment names a Builtin, which the code generator pushes directly.
+ *
+ * The lambdas of a chain (see Delta) share one environment, in which the variable of the n-th
+ * lambda is in slot n. Only the body of the last one holds anything but a lambda, so that is
+ * the one body of the chain with identifiers to resolve.
+ */
+public class Resolver{
+
+  private static class Scope{
+    List<String> names; //the bound variables of a delta
+    Scope parent;
+
+    Scope(List<String> names, Scope parent){
+      this.names = names;
+      this.parent = parent;
+    }
+  }
+
+  private static class PendingBody{
+    Stack<ASTNode> body;
+    Scope scope;
+
+    PendingBody(Stack<ASTNode> body, Scope scope){
+      this.body = body;
+      this.scope = scope;
+    }
+  }
+
+  private Resolver(){
+  }
+
+  /**
+   * Resolves the identifiers of rootDelta's body and of every delta and beta in it.
+   */
+  public static void resolve(Delta rootDelta){
+    ArrayDeque<PendingBody> pendingBodies = new ArrayDeque<PendingBody>();
+    pendingBodies.push(new PendingBody(rootDelta.getBody(), new Scope(Builtin.getNames(), null)));
+    while(!pendingBodies.isEmpty()){
+      PendingBody pendingBody = pendingBodies.pop();
+      for(ASTNode element: pendingBody.body){
+        if(element instanceof Delta){
+          Delta chainEnd = linkChain((Delta)element);
+          pendingBodies.push(new PendingBody(chainEnd.getBody(), new Scope(chainEnd.getFrameNames(), pendingBody.scope)));
+        }
+        else if(element instanceof Beta){
+          //the arms of a conditional are evaluated in the environment of the body holding it
+          Beta beta = (Beta)element;
+          pendingBodies.push(new PendingBody(beta.getThenBody(), pendingBody.scope));
+          pendingBodies.push(new PendingBody(beta.getElseBody(), pendingBody.scope));
+        }
+        else if(element instanceof Identifier)
+          resolveIdentifier((Identifier)element, pendingBody.scope);
+      }
+    }
+  }
+
+  /**
+   * Makes delta and the lambdas its body is a chain of, if any, a chain, and returns the last.
+   */
+  private static Delta linkChain(Delta delta){
+    List<Delta> chain = new ArrayList<Delta>();
+    chain.add(delta);
+    Delta chainEnd = delta;
+    while(chainEnd.getBoundVars().size()==1 && chainEnd.getBody().size()==1 && chainEnd.getBody().get(0) instanceof Delta &&
+        ((Delta)chainEnd.getBody().get(0)).getBoundVars().size()==1){
+      chainEnd = (Delta)chainEnd.getBody().get(0);
+      chain.add(chainEnd);
+    }
+    if(chain.size()==1)
+      return delta;
+
+    List<String> frameNames = new ArrayList<String>();
+    for(Delta lambda: chain)
+      frameNames.add(lambda.getBoundVars().get(0));
+    for(int i=0;i<chain.size();++i)
+      chain.get(i).setChain(frameNames, i, chainEnd);
+    return chainEnd;
+  }
+
+  private static void resolveIdentifier(Identifier identifier, Scope scope){
+    int depth = 0;
+    for(;scope!=null;scope = scope.parent){
+      int slot = scope.names.lastIndexOf(identifier.getValue());
+      if(slot>=0){
+        identifier.setDepth(scope.parent==null?Identifier.BUILTIN:depth);
+        identifier.setSlot(slot);
+        return;
+      }
+      depth++;
+    }
+    identifier.setDepth(Identifier.UNDECLARED);
+  }
+}
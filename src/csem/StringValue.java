@@ -0,0 +1,138 @@
+package csem;
+
+import java.util.ArrayDeque;
+
+import ast.ASTNode;
+import ast.ASTNodeType;
+
+/**
+ * A string made by Stem, Stern or Conc, held without copying characters: a slice of another
+ * string, or the concatenation of two strings. Its text is only put together when something
+ * needs it (getValue, for printing, say), and is then kept.
+ *
+ * Walking a string with Stern and building one up with Conc, the usual way of processing
+ * strings in RPAL, therefore costs O(1) a step instead of a copy of the string.
+ */
+public class StringValue extends ASTNode{
+  private static final int FLAT_LENGTH = 32; //shorter concatenations are copied right away
+
+  private String base; //null until a concatenation is flattened
+  private int offset;
+  private final int length;
+  private ASTNode left; //the operands of a concatenation not flattened yet
+  private ASTNode right;
+
+  private StringValue(String base, int offset, int length){
+    setType(ASTNodeType.STRING);
+    this.base = base;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  private StringValue(ASTNode left, ASTNode right, int length){
+    setType(ASTNodeType.STRING);
+    this.left = left;
+    this.right = right;
+    this.length = length;
+  }
+
+  /**
+   * Returns the first character of the string node as a new string node ("" if it is empty).
+   */
+  public static StringValue stem(ASTNode string){
+    StringValue slice = asSlice(string);
+    return new StringValue(slice.base, slice.offset, Math.min(slice.length, 1));
+  }
+
+  /**
+   * Returns all but the first character of the string node as a new string node ("" if it has
+   * at most one).
+   */
+  public static StringValue stern(ASTNode string){
+    StringValue slice = asSlice(string);
+    if(slice.length<=1)
+      return new StringValue("", 0, 0);
+    return new StringValue(slice.base, slice.offset+1, slice.length-1);
+  }
+
+  /**
+   * Returns the concatenation of two string nodes as a new string node.
+   */
+  public static StringValue concat(ASTNode string1, ASTNode string2){
+    int length = getLength(string1)+getLength(string2);
+    if(length<=FLAT_LENGTH){
+      String text = string1.getValue()+string2.getValue();
+      return new StringValue(text, 0, text.length());
+    }
+    return new StringValue(string1, string2, length);
+  }
+
+  /**
+   * Tells whether two string nodes have the same text, comparing lengths first.
+   */
+  public static boolean equals(ASTNode string1, ASTNode string2){
+    if(getLength(string1)!=getLength(string2))
+      return false;
+    StringValue slice1 = asSlice(string1);
+    StringValue slice2 = asSlice(string2);
+    return slice1.base.regionMatches(slice1.offset, slice2.base, slice2.offset, slice1.length);
+  }
+
+  private static int getLength(ASTNode string){
+    if(string instanceof StringValue)
+      return ((StringValue)string).length;
+    return string.getValue().length();
+  }
+
+  private static StringValue asSlice(ASTNode string){
+    //a literal, or a StringValue whose text has been put together
+    if(string instanceof StringValue){
+      StringValue value = (StringValue)string;
+      value.flatten();
+      return value;
+    }
+    String text = string.getValue();
+    return new StringValue(text, 0, text.length());
+  }
+
+  @Override
+  public String getValue(){
+    flatten();
+    if(offset!=0 || length!=base.length()){
+      base = base.substring(offset, offset+length);
+      offset = 0;
+    }
+    return base;
+  }
+
+  private void flatten(){
+    if(base!=null)
+      return;
+    //concatenations nest as deep as the loop that built them ran, so they are walked from a stack
+    char[] text = new char[length];
+    int position = 0;
+    ArrayDeque<ASTNode> pending = new ArrayDeque<ASTNode>();
+    pending.push(this);
+    while(!pending.isEmpty()){
+      ASTNode next = pending.pop();
+      if(next instanceof StringValue && ((StringValue)next).base==null){
+        pending.push(((StringValue)next).right);
+        pending.push(((StringValue)next).left);
+      }
+      else if(next instanceof StringValue){
+        StringValue slice = (StringValue)next;
+        slice.base.getChars(slice.offset, slice.offset+slice.length, text, position);
+        position += slice.length;
+      }
+      else{
+        String part = next.getValue();
+        part.getChars(0, part.length(), text, position);
+        position += part.length();
+      }
+    }
+    base = new String(text);
+    offset = 0;
+    left = null;
+    right = null;
+  }
+}
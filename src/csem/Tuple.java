@@ -1,31 +1,112 @@
 package csem;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
 import ast.ASTNode;
 import ast.ASTNodeType;
 
+/**
+ * A tuple value. The elements are held in an array rather than linked through their siblings,
+ * so one value can be an element of any number of tuples, selecting an element and taking the
+ * length are O(1), and a tuple is never changed once made: aug makes a new one.
+ *
+ * The array can be longer than the tuple and shared with the tuples aug makes from it. Each
+ * tuple sees only its first size elements, and aug writes past them only if no tuple has
+ * claimed that slot yet, so building a tuple with T aug x costs amortized O(1) per element,
+ * and a tuple augmented twice copies the second time instead of changing the first result.
+ */
 public class Tuple extends ASTNode{
-  
+  private static final Buffer NO_ELEMENTS = new Buffer(new ASTNode[0], 0);
+
+  private final Buffer buffer;
+  private final int size;
+
+  /**
+   * An array shared by tuples, and how many of its elements some tuple has claimed.
+   */
+  private static class Buffer{
+    ASTNode[] elements;
+    int claimed;
+
+    Buffer(ASTNode[] elements, int claimed){
+      this.elements = elements;
+      this.claimed = claimed;
+    }
+  }
+
   public Tuple(){
+    this(NO_ELEMENTS, 0);
+  }
+
+  /**
+   * Creates a tuple of the given elements. The array becomes the tuple's and must not be changed.
+   */
+  public Tuple(ASTNode[] elements){
+    this(new Buffer(elements, elements.length), elements.length);
+  }
+
+  private Tuple(Buffer buffer, int size){
     setType(ASTNodeType.TUPLE);
+    this.buffer = buffer;
+    this.size = size;
   }
-  
+
   @Override
   public String getValue(){
-    ASTNode childNode = getChild();
-    if(childNode==null)
+    if(size==0)
       return "nil";
-    
-    String printValue = "(";
-    while(childNode.getSibling()!=null){
-      printValue += childNode.getValue() + ", ";
-      childNode = childNode.getSibling();
+
+    //nested tuples are written from a stack of what is left to print rather than by recursing, as
+    //they can nest deeper than the Java stack goes (a list built of pairs, say)
+    StringBuilder printValue = new StringBuilder();
+    ArrayDeque<Object> pending = new ArrayDeque<Object>();
+    pending.push(this);
+    while(!pending.isEmpty()){
+      Object next = pending.pop();
+      if(next instanceof String)
+        printValue.append((String)next);
+      else if(next instanceof Tuple && ((Tuple)next).size>0){
+        Tuple nested = (Tuple)next;
+        pending.push(")");
+        for(int i=nested.size-1;i>0;--i){
+          pending.push(nested.get(i));
+          pending.push(", ");
+        }
+        pending.push(nested.get(0));
+        pending.push("(");
+      }
+      else
+        printValue.append(((ASTNode)next).getValue());
     }
-    printValue += childNode.getValue() + ")";
-    return printValue;
+    return printValue.toString();
+  }
+
+  public int size(){
+    return size;
   }
-  
-  public Tuple accept(NodeCopier nodeCopier){
-    return nodeCopier.copy(this);
+
+  //get the element at the given index, starting from 0
+  public ASTNode get(int index){
+    if(index>=size)
+      throw new ArrayIndexOutOfBoundsException(index);
+    return buffer.elements[index];
   }
-  
+
+  /**
+   * Returns a new tuple of this tuple's elements followed by element. This tuple is not changed.
+   */
+  public Tuple augment(ASTNode element){
+    if(buffer.claimed==size && size<buffer.elements.length){
+      //the slot after this tuple's elements is free, so the new tuple can share the array
+      buffer.elements[size] = element;
+      buffer.claimed++;
+      return new Tuple(buffer, size+1);
+    }
+    ASTNode[] augmented = Arrays.copyOf(buffer.elements, Math.max(4, size*2));
+    Arrays.fill(augmented, size, augmented.length, null);
+    augmented[size] = element;
+    return new Tuple(new Buffer(augmented, size+1), size+1);
+  }
+
 }
@@ -0,0 +1,255 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import ast.AST;
+import ast.NodePool;
+import scanner.ParallelTokenizer;
+import scanner.TokenEdit;
+import scanner.TokenStream;
+
+public class IncrementalParser{
+  /*
+   * Keeps the tokens and the AST of a source file up to date as the file is edited, for editors
+   * and watch loops that would otherwise scan and parse the whole file after every change.
+   *
+   * An edit rescans only the tokens it can change (see TokenEdit). Then the innermost E or D
+   * around the changed tokens is parsed again, and the new tree is put in place of the old one;
+   * the rest of the AST is kept. The parser records which tokens every E and D it parsed covers
+   * (see ParsedRegion), and what an E or D parses to depends only on its own tokens and the one
+   * after them. So the new tree is used if the new parse ends just before that same token; if it
+   * does not, the next enclosing E or D is tried, and the whole program at last.
+   *
+   * The AST after an edit is the same as parsing the new source from scratch would give,
+   * line numbers included. New trees are parsed into the same NodePool, and the nodes of the
+   * trees they replace are left behind in it; the whole source is parsed again into a new pool
+   * once the pool has grown to twice its size after the last full parse.
+   */
+
+  private ByteBuffer source;
+  private TokenStream tokens;
+  private AST ast;
+  private int fullParseSize; //size of the pool after the last full parse
+  private List<ParsedRegion> regions; //in the order the calls were made; null while the source does not parse
+
+  public IncrementalParser(String inputFile) throws IOException{
+    this(ParallelTokenizer.tokenize(inputFile));
+  }
+
+  public IncrementalParser(ByteBuffer source){
+    this(ParallelTokenizer.tokenize(source));
+  }
+
+  private IncrementalParser(TokenStream tokens){
+    this.tokens = tokens;
+    this.source = tokens.getSource();
+    parseAll();
+  }
+
+  public ByteBuffer getSource(){
+    return source;
+  }
+
+  public TokenStream getTokens(){
+    return tokens;
+  }
+
+  /**
+   * Returns the AST of the current source. The tree is updated in place by later edits, so it
+   * must not be standardized; standardize the tree from {@link #copyAST()} instead.
+   */
+  public AST getAST(){
+    if(regions==null)
+      parseAll();
+    return ast;
+  }
+
+  /**
+   * Returns a copy of the AST of the current source, which can be standardized and evaluated.
+   */
+  public AST copyAST(){
+    return getAST().copy();
+  }
+
+  /**
+   * Replaces removedLength bytes of the source at offset with text, and brings the tokens and
+   * the AST up to date. If the new source does not parse, the edit is kept and ParseException
+   * is thrown; later edits can make it parse again.
+   */
+  public void edit(int offset, int removedLength, String text){
+    byte[] inserted = text.getBytes(StandardCharsets.UTF_8);
+    int tailLength = source.limit()-offset-removedLength;
+    byte[] newBytes = new byte[offset+inserted.length+tailLength];
+    source.get(0, newBytes, 0, offset);
+    System.arraycopy(inserted, 0, newBytes, offset, inserted.length);
+    source.get(offset+removedLength, newBytes, offset+inserted.length, tailLength);
+    ByteBuffer newSource = ByteBuffer.wrap(newBytes);
+
+    TokenEdit tokenEdit = TokenEdit.apply(tokens, newSource, offset, removedLength, inserted.length);
+    TokenStream oldTokens = tokens;
+    source = newSource;
+    tokens = tokenEdit.getTokens();
+    if(regions==null){
+      parseAll();
+      return;
+    }
+
+    try{
+      reparse(oldTokens, tokenEdit);
+    }
+    catch(RuntimeException|StackOverflowError e){
+      ast = null;
+      regions = null;
+      throw e;
+    }
+  }
+
+  private void parseAll(){
+    ast = null;
+    regions = null;
+    List<ParsedRegion> newRegions = new ArrayList<ParsedRegion>();
+    Parser parser = new Parser(tokens);
+    parser.recordRegions(newRegions);
+    ast = parser.buildAST();
+    regions = newRegions;
+    fullParseSize = ast.getPool().size();
+  }
+
+  private void reparse(TokenStream oldTokens, TokenEdit tokenEdit){
+    int oldEndToken = tokenEdit.getOldEndToken();
+    int tokenDelta = tokenEdit.getNewEndToken()-oldEndToken;
+    int lineDelta = tokenEdit.getLineDelta();
+
+    if(tokenDelta==0 && tokenEdit.getFirstToken()==oldEndToken){ //only blanks or comments changed
+      if(lineDelta==0)
+        return;
+      if(startsLine(oldTokens, oldEndToken)){
+        if(oldEndToken<oldTokens.size())
+          shiftLineNumbers(ast.getPool(), ast.getRoot(), oldTokens.getSourceLineNumber(oldEndToken), lineDelta, NodePool.NULL);
+        return;
+      }
+    }
+
+    //the tokens before region.start are the same, so parsing the new ones reaches region.start in
+    //the same state and a ParseException from here is one the whole parse would throw too. A
+    //malformed E or D can pop nodes it did not push, which only the whole parse can reproduce.
+    NodePool pool = ast.getPool();
+    if(pool.size()>2*fullParseSize){
+      parseAll(); //most of the pool is trees that were replaced
+      return;
+    }
+    for(ParsedRegion region = innermostRegion(tokenEdit.getFirstToken(), oldEndToken);region!=null && region.parent!=null;region = region.parent){
+      if(lineDelta!=0 && !startsLine(oldTokens, region.end))
+        continue; //a node after the region could be on the same line as one in it, which stays put
+      List<ParsedRegion> newRegions = new ArrayList<ParsedRegion>();
+      Parser parser = new Parser(tokens, pool);
+      parser.recordRegions(newRegions);
+      int node = parser.reparse(region.production, region.start);
+      if(node==NodePool.NULL)
+        continue; //it needed nodes the enclosing productions had pushed, or left some for them
+      if(parser.getTokenIndex()!=region.end+tokenDelta)
+        continue; //the enclosing parse would go differently after it
+      if(region.node==NodePool.NULL || pool.getSourceLineNumber(node)!=pool.getSourceLineNumber(region.node))
+        continue; //enclosing nodes may have taken their line number from the old tree
+      if(lineDelta!=0 && region.end<oldTokens.size())
+        shiftLineNumbers(pool, ast.getRoot(), oldTokens.getSourceLineNumber(region.end), lineDelta, region.node);
+      replaceRegion(region, node, newRegions, tokenDelta);
+      return;
+    }
+    parseAll();
+  }
+
+  private ParsedRegion innermostRegion(int firstToken, int oldEndToken){
+    //regions are ordered by start; the ones around the last region that starts at or before
+    //firstToken are its ancestors. There may be none: the program ends at an invalid token,
+    //and the tokens after that one are not in any region.
+    ParsedRegion region = regions.get(lastRegionStartingAt(firstToken));
+    while(region!=null && region.end<oldEndToken)
+      region = region.parent;
+    return region;
+  }
+
+  private int lastRegionStartingAt(int token){
+    int low = 0;
+    int high = regions.size();
+    while(low<high){
+      int middle = (low+high)>>>1;
+      if(regions.get(middle).start<=token)
+        low = middle+1;
+      else
+        high = middle;
+    }
+    return low-1;
+  }
+
+  private static boolean startsLine(TokenStream tokens, int index){
+    return index==0 || index>=tokens.size() || tokens.getSourceLineNumber(index)>tokens.getSourceLineNumber(index-1);
+  }
+
+  /**
+   * Adds lineDelta to the line numbers of the nodes at or below line threshold. Nodes are in
+   * source order, so a node whose next sibling is above the threshold has nothing to shift
+   * below it. The subtree of skip is about to be replaced and is not visited.
+   */
+  private static void shiftLineNumbers(NodePool pool, int root, int threshold, int lineDelta, int skip){
+    ArrayDeque<Integer> pendingSiblings = new ArrayDeque<Integer>();
+    int node = root;
+    while(node!=NodePool.NULL){
+      int sibling = pool.getSibling(node);
+      boolean visitChildren = node!=skip && pool.getChild(node)!=NodePool.NULL;
+      if(pool.getSourceLineNumber(node)>=threshold)
+        pool.setSourceLineNumber(node, pool.getSourceLineNumber(node)+lineDelta);
+      else if(sibling!=NodePool.NULL && pool.getSourceLineNumber(sibling)<threshold)
+        visitChildren = false;
+
+      if(visitChildren){
+        if(sibling!=NodePool.NULL)
+          pendingSiblings.push(sibling);
+        node = pool.getChild(node);
+      }
+      else if(sibling!=NodePool.NULL)
+        node = sibling;
+      else
+        node = pendingSiblings.isEmpty()?NodePool.NULL:pendingSiblings.pop();
+    }
+  }
+
+  private void replaceRegion(ParsedRegion region, int node, List<ParsedRegion> newRegions, int tokenDelta){
+    //enclosing nodes and regions refer to the old node, so it takes over the new tree
+    NodePool pool = ast.getPool();
+    int oldNode = region.node;
+    pool.setType(oldNode, pool.getType(node));
+    pool.setValue(oldNode, pool.getValue(node));
+    pool.setChild(oldNode, pool.getChild(node));
+    pool.setSourceLineNumber(oldNode, pool.getSourceLineNumber(node));
+    for(ParsedRegion newRegion: newRegions){
+      if(newRegion.node==node)
+        newRegion.node = oldNode;
+    }
+    newRegions.get(0).parent = region.parent;
+
+    int index = lastRegionStartingAt(region.start);
+    while(regions.get(index)!=region)
+      index--;
+    int end = index+1;
+    while(end<regions.size() && regions.get(end).start<region.end)
+      end++;
+    regions.subList(index, end).clear();
+    regions.addAll(index, newRegions);
+
+    if(tokenDelta!=0){
+      for(int i=index+newRegions.size();i<regions.size();++i){
+        ParsedRegion following = regions.get(i);
+        following.start += tokenDelta;
+        following.end += tokenDelta;
+      }
+      for(ParsedRegion enclosing = region.parent;enclosing!=null;enclosing = enclosing.parent)
+        enclosing.end += tokenDelta;
+    }
+  }
+}
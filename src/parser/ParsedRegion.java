@@ -0,0 +1,27 @@
+package parser;
+
+import ast.NodePool;
+
+/**
+ * The tokens one call of the parser's E or D procedure parsed, and the tree it built. The parser records
+ * these for IncrementalParser, nested the way the calls were.
+ *
+ * The call looked at the tokens [start..end]: end is the token that told it to stop, which is
+ * not part of the E or D. What such a call builds depends on nothing but those tokens.
+ */
+class ParsedRegion{
+  static final int E = 0;
+  static final int D = 1;
+
+  final int production;
+  int start; //index of the first token
+  int end; //index of the token after the last one
+  int node = NodePool.NULL; //its handle in the parser's pool, or NULL if the call popped more than it pushed
+  ParsedRegion parent; //the call this one was made in, or null for the whole program
+
+  ParsedRegion(int production, int start, ParsedRegion parent){
+    this.production = production;
+    this.start = start;
+    this.parent = parent;
+  }
+}
@@ -1,12 +1,18 @@
 package parser;
 
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.List;
 
 import ast.AST;
-import ast.ASTNode;
 import ast.ASTNodeType;
+import ast.NodePool;
+import ast.StandardizeException;
+import ast.Standardizer;
 import scanner.Scanner;
-import scanner.Token;
+import scanner.SymbolTable;
+import scanner.TokenCursor;
+import scanner.TokenStream;
 import scanner.TokenType;
 
 
@@ -14,29 +20,177 @@ public class Parser{
   /*
    * Recursive descent parser that complies with RPAL's phrase structure grammar.
    * This class does all the heavy lifting.
+   * The procedures of the grammar call each other through a control stack on the heap rather
+   * than the Java stack (see parse()), so deeply nested programs do not overflow the thread stack.
    * It gets input from the scanner for every clause in the phase structure grammar.
    * It builds the abstract syntax tree.
+   * Tokens are read through a cursor over the packed TokenStream of the whole file, so the
+   * parser neither allocates tokens nor skips whitespace and comments itself.
+   * Nodes are built in a NodePool, and the parse stack holds their handles.
    */
 
-  private Scanner s;
-  private Token currentToken;
-  Stack<ASTNode> stack;
+  //precedence levels of the operators B parses, from the loosest
+  private static final int OR_LEVEL = 1;
+  private static final int AND_LEVEL = 2;
+  private static final int NOT_LEVEL = 3;
+  private static final int COMPARISON_LEVEL = 4;
+  private static final int ADD_LEVEL = 5;
+  private static final int MULT_LEVEL = 6;
+  private static final int EXP_LEVEL = 7;
+  private static final int AT_LEVEL = 8;
+
+  //states of parse(): the start of each procedure, and the points procedures return to
+  private static final int DONE = 0;
+  private static final int E_START = 1;
+  private static final int E_LOOP = 2;
+  private static final int E_AFTER_LET_D = 3;
+  private static final int E_AFTER_EW = 4;
+  private static final int EW_START = 5;
+  private static final int EW_AFTER_T = 6;
+  private static final int EW_AFTER_DR = 7;
+  private static final int T_START = 8;
+  private static final int T_AFTER_TA = 9;
+  private static final int TA_START = 10;
+  private static final int TA_AFTER_AUG_TC = 11;
+  private static final int TA_AFTER_TC = 12;
+  private static final int TC_START = 13;
+  private static final int TC_AFTER_B = 14;
+  private static final int TC_AFTER_THEN = 15;
+  private static final int TC_AFTER_ELSE = 16;
+  private static final int B_START = 17;
+  private static final int B_OPERAND = 18;
+  private static final int B_AFTER_R = 19;
+  private static final int B_END = 20;
+  private static final int R_AFTER_GAMMA_RN = 21;
+  private static final int R_AFTER_RN = 22;
+  private static final int RN_START = 23;
+  private static final int RN_AFTER_E = 24;
+  private static final int D_START = 25;
+  private static final int D_AFTER_DA = 26;
+  private static final int D_AFTER_WITHIN = 27;
+  private static final int DA_START = 28;
+  private static final int DA_AFTER_DR = 29;
+  private static final int DR_START = 30;
+  private static final int DR_AFTER_DB = 31;
+  private static final int DB_START = 32;
+  private static final int DB_AFTER_D = 33;
+  private static final int DB_AFTER_EQUAL = 34;
+  private static final int DB_AFTER_FCNFORM = 35;
+
+  private TokenCursor currentToken;
+  private TokenType currentType; //the current token's type and SymbolTable id, or null and NONE if
+  private int currentSymbol;     //there is no current token; kept by readNT() for the checks below
+  private NodePool pool;
+  private int[] stack;
+  private int stackSize;
+  private ASTNodeType[] operators; //operators B has read whose right operand is not parsed yet
+  private int[] control; //return states of the procedures parse() is in, and what they keep across calls
+  private int controlSize;
+  private ParsedRegion[] openRegions; //the regions of the Es and Ds parse() is in
+  private int regionCount;
+  private int operatorCount;
+  private Standardizer standardizer; //standardizes every node as it is built, if not null
+  private StandardizeException standardizeFailure; //the first node the standardizer rejected, thrown once the parse has succeeded
+  private List<ParsedRegion> regions; //where to record the Es and Ds parsed, if anywhere; see IncrementalParser
+  private ParsedRegion currentRegion;
 
   public Parser(Scanner s){
-    this.s = s;
-    stack = new Stack<ASTNode>();
+    this(s.tokenize());
+  }
+
+  public Parser(TokenStream tokens){
+    this(tokens, new NodePool(tokens.size()*2));
+  }
+
+  Parser(TokenStream tokens, NodePool pool){
+    currentToken = new TokenCursor(tokens);
+    this.pool = pool;
+    stack = new int[64];
+    operators = new ASTNodeType[16];
+    control = new int[64];
+    openRegions = new ParsedRegion[16];
   }
   
   public AST buildAST(){
     // Method to initiate parsing and build the AST
     startParse();
-    return new AST(stack.pop());
+    return new AST(pool, pop());
+  }
+
+  /**
+   * Builds the standardized AST in the same pass: every node is standardized as soon as it is
+   * built, as its children are complete and standardized by then. Gives the same tree as
+   * buildAST() followed by AST.standardize(), without walking it a second time.
+   *
+   * A malformed program can build nodes the standardizer rejects before the parser finds the
+   * syntax error, so a standardizer failure is only thrown if the whole program parses; the
+   * parser's own error is reported otherwise, the same as by buildAST().
+   */
+  public AST buildStandardizedAST(){
+    standardizer = new Standardizer(pool);
+    startParse();
+    if(standardizeFailure!=null)
+      throw standardizeFailure;
+    return new AST(pool, pop(), true);
+  }
+
+  void recordRegions(List<ParsedRegion> regions){
+    this.regions = regions;
+  }
+
+  int reparse(int production, int start){
+    /*
+     * Parses one E or D, the way it would be parsed within the program if the token at index
+     * start were the current token, and returns its node. The cursor is left on the token after
+     * it. A malformed E or D can pop nodes it did not push or leave more than one; then it
+     * depends on what the enclosing productions parsed, the stacks are restored to the snapshot
+     * taken here, and NodePool.NULL is returned.
+     */
+    int stackSnapshot = stackSize;
+    int operatorSnapshot = operatorCount;
+    currentToken.setIndex(start-1);
+    readNT();
+    boolean standsAlone;
+    try{
+      parse(production==ParsedRegion.E?E_START:D_START);
+      standsAlone = stackSize==stackSnapshot+1;
+    }
+    catch(EmptyStackException e){
+      standsAlone = false;
+    }
+    if(!standsAlone){
+      stackSize = stackSnapshot;
+      operatorCount = operatorSnapshot;
+      return NodePool.NULL;
+    }
+    return pop();
+  }
+
+  int getTokenIndex(){
+    return currentToken.getIndex();
+  }
+
+  private ParsedRegion beginRegion(int production){
+    if(regions==null)
+      return null;
+    ParsedRegion region = new ParsedRegion(production, currentToken.getIndex(), currentRegion);
+    regions.add(region);
+    currentRegion = region;
+    return region;
+  }
+
+  private void endRegion(ParsedRegion region){
+    if(region==null)
+      return;
+    region.end = currentToken.getIndex();
+    region.node = stackSize==0?NodePool.NULL:stack[stackSize-1]; //empty if a malformed E or D popped its caller's nodes
+    currentRegion = region.parent;
   }
 
   public void startParse(){
     readNT();
-    procE(); 
-    if(currentToken!=null)
+    parse(E_START);
+    if(!currentToken.isNull())
       throw new ParseException("Expected EOF.");
   }
 
@@ -44,37 +198,35 @@ public class Parser{
     /*
      * This method is called at the beginning of every non-terminal method.
      */
-    do{
-      currentToken = s.readNextToken(); //load next token
-    }while(isCurrentTokenType(TokenType.DELETE)); // removes the unwanted tokens such as whitespaces, comments, tabs, etc.
-    if(null != currentToken){
-      if(currentToken.getType()==TokenType.IDENTIFIER){
-        createTerminalASTNode(ASTNodeType.IDENTIFIER, currentToken.getValue());
+    currentToken.advance(); //load next token; whitespace and comments were already dropped by the scanner
+    if(currentToken.isNull()){
+      currentType = null;
+      currentSymbol = SymbolTable.NONE;
+    }
+    else{
+      currentType = currentToken.getType();
+      currentSymbol = currentToken.getSymbol();
+      if(currentType==TokenType.IDENTIFIER){
+        createTerminalASTNode(ASTNodeType.IDENTIFIER, currentSymbol);
       }
-      else if(currentToken.getType()==TokenType.INTEGER){
-        createTerminalASTNode(ASTNodeType.INTEGER, currentToken.getValue());
+      else if(currentType==TokenType.INTEGER){
+        createTerminalASTNode(ASTNodeType.INTEGER, pool.addLiteral(currentToken.getValue()));
       } 
-      else if(currentToken.getType()==TokenType.STRING){
-        createTerminalASTNode(ASTNodeType.STRING, currentToken.getValue());
+      else if(currentType==TokenType.STRING){
+        createTerminalASTNode(ASTNodeType.STRING, pool.addLiteral(currentToken.getValue()));
       }
     }
   }
   
-  private boolean isCurrentToken(TokenType type, String value){
-    if(currentToken==null)
-      return false;
-    if(currentToken.getType()!=type || !currentToken.getValue().equals(value))
-      return false;
-    return true;
+  private boolean isCurrentSymbol(int symbol){
+    // keywords and operators are told apart by their SymbolTable ids alone, since no identifier
+    // can have the name of a keyword or an operator
+    return currentSymbol==symbol;
   }
   
   private boolean isCurrentTokenType(TokenType type){ 
     // for the tokens that the value is not specified or value is irrelevant
-    if(currentToken==null)
-      return false;
-    if(currentToken.getType()==type)
-      return true;
-    return false;
+    return currentType==type;
   }
   
   /**
@@ -103,519 +255,608 @@ public class Parser{
    * parameter ariness is the number of children to create for the new node
    */
   private void buildNAryASTNode(ASTNodeType type, int ariness){
-    ASTNode node = new ASTNode();
-    node.setType(type);
+    int node = pool.newNode(type, SymbolTable.NONE, 0);
     while(ariness>0){
-      ASTNode child = stack.pop();
-      if(node.getChild()!=null)
-        child.setSibling(node.getChild());
-      node.setChild(child);
-      node.setSourceLineNumber(child.getSourceLineNumber());
+      int child = pop();
+      if(pool.getChild(node)!=NodePool.NULL)
+        pool.setSibling(child, pool.getChild(node));
+      pool.setChild(node, child);
+      pool.setSourceLineNumber(node, pool.getSourceLineNumber(child));
       ariness--;
     }
-    stack.push(node);
-  }
-
-  private void createTerminalASTNode(ASTNodeType type, String value){
-    ASTNode node = new ASTNode();
-    node.setType(type);
-    node.setValue(value);
-    node.setSourceLineNumber(currentToken.getSourceLineNumber());
-    stack.push(node);
-  }
-  private void procE(){
-      /**
-   * <pre>
-   * E-> 'let' D 'in' E => 'let'
-   *  -> 'fn' Vb+ '.' E => 'lambda'
-   *  -> Ew;
-   * </pre>
-   */
-    if(isCurrentToken(TokenType.KEYWORD, "let")){ //E -> 'let' D 'in' E => 'let'
-      readNT();
-      procD();
-      if(!isCurrentToken(TokenType.KEYWORD, "in"))
-        throw new ParseException("E:  'in' expected");
-      readNT();
-      procE(); //extra readNT in procE()
-      buildNAryASTNode(ASTNodeType.LET, 2);
-    }
-    else if(isCurrentToken(TokenType.KEYWORD, "fn")){ //E -> 'fn' Vb+ '.' E => 'lambda'
-      int treesToPop = 0;
-      
-      readNT();
-      while(isCurrentTokenType(TokenType.IDENTIFIER) || isCurrentTokenType(TokenType.L_PAREN)){
-        procVB(); //extra readNT in procVB()
-        treesToPop++;
+    if(standardizer!=null){
+      try{
+        standardizer.standardizeNode(node);
+      }
+      catch(StandardizeException e){
+        //the rest of the program is parsed without standardizing, to find any syntax error first
+        standardizeFailure = e;
+        standardizer = null;
       }
-      
-      if(treesToPop==0)
-        throw new ParseException("E: at least one 'Vb' expected");
-      
-      if(!isCurrentToken(TokenType.OPERATOR, "."))
-        throw new ParseException("E: '.' expected");
-      
-      readNT();
-      procE(); //extra readNT in procE()
-      
-      buildNAryASTNode(ASTNodeType.LAMBDA, treesToPop+1); //+1 for the last E 
     }
-    else //E -> Ew
-      procEW();
+    push(node);
   }
 
+  private void createTerminalASTNode(ASTNodeType type, int value){
+    //value is the SymbolTable id of the node's text, or a literal's value in the pool
+    push(pool.newNode(type, value, currentToken.getSourceLineNumber()));
+  }
 
-  private void procEW(){
-  /**
-   * <pre>
-   * Ew -> T 'where' Dr => 'where'
-   *    -> T;
-   * </pre>
-   */
-    procT(); //Ew -> T
-    //extra readToken done in procT()
-    if(isCurrentToken(TokenType.KEYWORD, "where")){ //Ew -> T 'where' Dr => 'where'
-      readNT();
-      procDR(); //extra readToken() in procDR()
-      buildNAryASTNode(ASTNodeType.WHERE, 2);
-    }
+  private void push(int node){
+    if(stackSize==stack.length)
+      stack = Arrays.copyOf(stack, stackSize*2);
+    stack[stackSize++] = node;
   }
-  
-  private void procT(){
-      /**
-   * <pre>
-   * T -> Ta ( ',' Ta )+ => 'tau'
-   *   -> Ta;
-   * </pre>
-   */
-    procTA(); //T -> Ta
-    //extra readToken() in procTA()
-    int treesToPop = 0;
-    while(isCurrentToken(TokenType.OPERATOR, ",")){ //T -> Ta (',' Ta )+ => 'tau'
-      readNT();
-      procTA(); //extra readToken() done in procTA()
-      treesToPop++;
-    }
-    if(treesToPop > 0) buildNAryASTNode(ASTNodeType.TAU, treesToPop+1);
+
+  private int pop(){
+    if(stackSize==0)
+      throw new EmptyStackException();
+    return stack[--stackSize];
   }
+  private void parse(int goal){
+    /*
+     * Parses one E (goal E_START) or D (goal D_START). The procedures of the grammar below do
+     * not call each other on the Java stack: a call pushes the state to return to on the control
+     * stack and goes on with the callee's first state, and a return pops that state. What a
+     * procedure must remember across a call (a count, a flag, the operator stack's base in B)
+     * is pushed under the return state. So however deeply parentheses, conditionals, lets and
+     * definitions nest, parsing takes heap and not thread stack.
+     *
+     * Every procedure leaves the token after what it parsed as the current token (the extra
+     * readNT), except Rn; see R_AFTER_GAMMA_RN.
+     */
+    controlSize = 0; //left over if the last parse threw
+    while(regionCount>0)
+      popRegion();
+    pushControl(DONE);
+    int state = goal;
+    while(true){
+      switch(state){
+        /*
+         * E  -> 'let' D 'in' E => 'let'
+         *    -> 'fn' Vb+ '.' E => 'lambda'
+         *    -> Ew;
+         * The E after 'in' or '.' is parsed by the next round of E_LOOP rather than by a call,
+         * and the nodes are built afterwards, innermost first. Under the count of pending
+         * lets and fns, each has its number of children on the control stack (0 for a 'let')
+         * and its region on the region stack.
+         */
+        case E_START:
+          pushControl(0);
+          state = E_LOOP;
+          break;
+        case E_LOOP:{
+          ParsedRegion region = beginRegion(ParsedRegion.E);
+          pushRegion(region);
+          if(isCurrentSymbol(SymbolTable.LET)){ //E -> 'let' D 'in' E => 'let'
+            readNT();
+            state = call(E_AFTER_LET_D, D_START);
+          }
+          else if(isCurrentSymbol(SymbolTable.FN)){ //E -> 'fn' Vb+ '.' E => 'lambda'
+            readNT();
+            int treesToPop = procVBs();
 
+            if(!isCurrentSymbol(SymbolTable.DOT))
+              throw new ParseException("E: '.' expected");
 
-  private void procTA(){
-  /**
-   * <pre>
-   * Ta -> Ta 'aug' Tc => 'aug'
-   *    -> Tc;
-   * </pre>
-   */
-    procTC(); //Ta -> Tc
-    //extra readNT done in procTC()
-    while(isCurrentToken(TokenType.KEYWORD, "aug")){ //Ta -> Ta 'aug' Tc => 'aug'
-      readNT();
-      procTC(); //extra readNT done in procTC()
-      buildNAryASTNode(ASTNodeType.AUG, 2);
-    }
-  }
+            readNT();
+            addPendingE(treesToPop+1); //+1 for the last E
+            state = E_LOOP;
+          }
+          else //E -> Ew
+            state = call(E_AFTER_EW, EW_START);
+          break;
+        }
+        case E_AFTER_LET_D:
+          if(!isCurrentSymbol(SymbolTable.IN))
+            throw new ParseException("E:  'in' expected");
+          readNT();
+          addPendingE(0);
+          state = E_LOOP;
+          break;
+        case E_AFTER_EW:{
+          endRegion(popRegion());
+          int pendingCount = popControl();
+          while(pendingCount>0){
+            pendingCount--;
+            int arity = popControl();
+            if(arity==0)
+              buildNAryASTNode(ASTNodeType.LET, 2);
+            else
+              buildNAryASTNode(ASTNodeType.LAMBDA, arity);
+            endRegion(popRegion());
+          }
+          state = popControl();
+          break;
+        }
 
+        /*
+         * Ew -> T 'where' Dr => 'where'
+         *    -> T;
+         */
+        case EW_START:
+          state = call(EW_AFTER_T, T_START); //Ew -> T
+          break;
+        case EW_AFTER_T:
+          if(isCurrentSymbol(SymbolTable.WHERE)){ //Ew -> T 'where' Dr => 'where'
+            readNT();
+            state = call(EW_AFTER_DR, DR_START);
+          }
+          else
+            state = popControl();
+          break;
+        case EW_AFTER_DR:
+          buildNAryASTNode(ASTNodeType.WHERE, 2);
+          state = popControl();
+          break;
+
+        /*
+         * T -> Ta ( ',' Ta )+ => 'tau'
+         *   -> Ta;
+         * The number of Tas after the first is kept under the return state.
+         */
+        case T_START:
+          pushControl(0);
+          state = call(T_AFTER_TA, TA_START); //T -> Ta
+          break;
+        case T_AFTER_TA:{
+          int treesToPop = popControl();
+          if(isCurrentSymbol(SymbolTable.COMMA)){ //T -> Ta (',' Ta )+ => 'tau'
+            readNT();
+            pushControl(treesToPop+1);
+            state = call(T_AFTER_TA, TA_START);
+          }
+          else{
+            if(treesToPop > 0) buildNAryASTNode(ASTNodeType.TAU, treesToPop+1);
+            state = popControl();
+          }
+          break;
+        }
 
-  private void procTC(){
-      /**
-   * <pre>
-   * Tc -> B '->' Tc '|' Tc => '->'
-   *    -> B;
-   * </pre>
-   */
-    procB(); //Tc -> B
-    //extra readNT in procBT()
-    if(isCurrentToken(TokenType.OPERATOR, "->")){ //Tc -> B '->' Tc '|' Tc => '->'
-      readNT();
-      procTC(); //extra readNT done in procTC
-      if(!isCurrentToken(TokenType.OPERATOR, "|"))
-        throw new ParseException("TC: '|' expected");
-      readNT();
-      procTC();  //extra readNT done in procTC
-      buildNAryASTNode(ASTNodeType.CONDITIONAL, 3);
-    }
-  }
-  
-  private void procB(){
-      
-  /**
-   * <pre>
-   * B -> B 'or' Bt => 'or'
-   *   -> Bt;
-   * </pre>
-   */
-    procBT(); //B -> Bt
-    //extra readNT in procBT()
-    while(isCurrentToken(TokenType.KEYWORD, "or")){ //B -> B 'or' Bt => 'or'
-      readNT();
-      procBT();
-      buildNAryASTNode(ASTNodeType.OR, 2);
-    }
-  }
-  
+        /*
+         * Ta -> Ta 'aug' Tc => 'aug'
+         *    -> Tc;
+         */
+        case TA_START:
+          state = call(TA_AFTER_TC, TC_START); //Ta -> Tc
+          break;
+        case TA_AFTER_AUG_TC:
+          buildNAryASTNode(ASTNodeType.AUG, 2);
+          state = TA_AFTER_TC;
+          break;
+        case TA_AFTER_TC:
+          if(isCurrentSymbol(SymbolTable.AUG)){ //Ta -> Ta 'aug' Tc => 'aug'
+            readNT();
+            state = call(TA_AFTER_AUG_TC, TC_START);
+          }
+          else
+            state = popControl();
+          break;
+
+        /*
+         * Tc -> B '->' Tc '|' Tc => '->'
+         *    -> B;
+         */
+        case TC_START:
+          state = call(TC_AFTER_B, B_START); //Tc -> B
+          break;
+        case TC_AFTER_B:
+          if(isCurrentSymbol(SymbolTable.ARROW)){ //Tc -> B '->' Tc '|' Tc => '->'
+            readNT();
+            state = call(TC_AFTER_THEN, TC_START);
+          }
+          else
+            state = popControl();
+          break;
+        case TC_AFTER_THEN:
+          if(!isCurrentSymbol(SymbolTable.BAR))
+            throw new ParseException("TC: '|' expected");
+          readNT();
+          state = call(TC_AFTER_ELSE, TC_START);
+          break;
+        case TC_AFTER_ELSE:
+          buildNAryASTNode(ASTNodeType.CONDITIONAL, 3);
+          state = popControl();
+          break;
+
+        /*
+         * B  -> B 'or' Bt => 'or'
+         *    -> Bt;
+         * Bt -> Bt '&' Bs => '&'
+         *    -> Bs;
+         * Bs -> 'not' Bp => 'not'
+         *    -> Bp;
+         * Bp -> A ('gr' | '>' | 'ge' | '>=' | 'ls' | '<' | 'le' | '<=' | 'eq' | 'ne') A
+         *    -> A;
+         * A  -> A '+' At => '+'
+         *    -> A '-' At => '-'
+         *    ->   '+' At
+         *    ->   '-' At => 'neg'
+         *    -> At;
+         * At -> At '*' Af => '*'
+         *    -> At '/' Af => '/'
+         *    -> Af;
+         * Af -> Ap '**' Af => '**'
+         *    -> Ap;
+         * Ap -> Ap '@' '<IDENTIFIER>' R => '@'
+         *    -> R;
+         * These levels are parsed by operator precedence in one loop instead of one procedure
+         * per level: operators whose right operand is not complete yet wait on the operator
+         * stack, and an operator is built as soon as the next one binds less tightly. So an
+         * operand costs no calls but R, and chains of operators take no control stack. The
+         * nodes are built in the same order the grammar above would build them.
+         * Under the return state is where this B's operators start on the operator stack (R
+         * can get back to B through '(' E ')'), and on top of that, until B_OPERAND takes it,
+         * the level the next operand starts at, which decides the prefixes it may have.
+         */
+        case B_START:
+          pushControl(operatorCount);
+          pushControl(OR_LEVEL);
+          state = B_OPERAND;
+          break;
+        case B_OPERAND:{
+          int level = popControl();
+          if(level<=NOT_LEVEL && isCurrentSymbol(SymbolTable.NOT)){ //Bs -> 'not' Bp => 'not'
+            readNT();
+            pushOperator(ASTNodeType.NOT);
+            level = COMPARISON_LEVEL;
+          }
+          if(level<=ADD_LEVEL){
+            if(isCurrentSymbol(SymbolTable.PLUS)) //A -> '+' At
+              readNT();
+            else if(isCurrentSymbol(SymbolTable.MINUS)){ //A -> '-' At => 'neg'
+              readNT();
+              pushOperator(ASTNodeType.NEG);
+            }
+          }
+          pushControl(B_AFTER_R);
+          state = call(R_AFTER_RN, RN_START); //Ap -> R; R -> Rn
+          break;
+        }
+        case B_AFTER_R:{
+          int base = peekControl();
+          state = B_END;
+          ASTNodeType operator = getInfixOperator();
+          if(operator==null)
+            break;
+          int precedence = getPrecedence(operator);
+          boolean comparisonDone = false;
+          while(operatorCount>base){
+            int top = getPrecedence(operators[operatorCount-1]);
+            if(top<precedence || (top==precedence && operator==ASTNodeType.EXP)) //Af -> Ap '**' Af is right associative
+              break;
+            if(top==COMPARISON_LEVEL)
+              comparisonDone = true;
+            buildOperator(operators[--operatorCount]);
+          }
+          if(comparisonDone && precedence==COMPARISON_LEVEL)
+            break; //Bp takes one comparison; a second one ends the B
 
-  private void procBT(){
-      /**
-   * <pre>
-   * Bt -> Bs '&' Bt => '&'
-   *    -> Bs;
-   * </pre>
-   */
-    procBS(); //Bt -> Bs;
-    //extra readNT in procBS()
-    while(isCurrentToken(TokenType.OPERATOR, "&")){ //Bt -> Bt '&' Bs => '&'
-      readNT();
-      procBS(); //extra readNT in procBS()
-      buildNAryASTNode(ASTNodeType.AND, 2);
-    }
-  }
-  
+          readNT();
+          if(operator==ASTNodeType.AT){ //Ap -> Ap '@' '<IDENTIFIER>' R => '@'
+            if(!isCurrentTokenType(TokenType.IDENTIFIER))
+              throw new ParseException("AP: expected Identifier");
+            readNT();
+          }
+          pushOperator(operator);
+          pushControl(operator==ASTNodeType.EXP?precedence:precedence+1);
+          state = B_OPERAND;
+          break;
+        }
+        case B_END:{
+          int base = popControl();
+          while(operatorCount>base)
+            buildOperator(operators[--operatorCount]);
+          state = popControl();
+          break;
+        }
 
-  private void procBS(){
-      /**
-   * <pre>
-   * Bs -> 'not Bp => 'not'
-   *    -> Bp;
-   * </pre>
-   */
-    if(isCurrentToken(TokenType.KEYWORD, "not")){ //Bs -> 'not' Bp => 'not'
-      readNT();
-      procBP(); //extra readNT in procBP()
-      buildNAryASTNode(ASTNodeType.NOT, 1);
+        /*
+         * R -> R Rn => 'gamma'
+         *   -> Rn;
+         * R is only called from B_OPERAND, which calls its first Rn itself.
+         */
+        case R_AFTER_GAMMA_RN:
+          //Rn does NOT do the extra readNT. This is important because if it did and the current
+          //token happened to be an INTEGER, IDENTIFIER, or STRING, it would get pushed on the
+          //stack, and the GAMMA node built here would have the wrong kids. So the GAMMA is built
+          //first, and only then the next token read.
+          buildNAryASTNode(ASTNodeType.GAMMA, 2);
+          state = R_AFTER_RN;
+          break;
+        case R_AFTER_RN:
+          readNT();
+          if(isStartOfRn()) //R -> R Rn => 'gamma'
+            state = call(R_AFTER_GAMMA_RN, RN_START);
+          else
+            state = popControl();
+          break;
+
+        /*
+         * Rn -> '<IDENTIFIER>'
+         *    -> '<INTEGER>'
+         *    -> '<STRING>'
+         *    -> 'true' => 'true'
+         *    -> 'false' => 'false'
+         *    -> 'nil' => 'nil'
+         *    -> '(' E ')'
+         *    -> 'dummy' => 'dummy'
+         * NOTE: NO extra readNT in Rn. See R_AFTER_GAMMA_RN for why.
+         */
+        case RN_START:
+          if(isCurrentTokenType(TokenType.L_PAREN)){ //Rn -> '(' E ')'
+            readNT();
+            state = call(RN_AFTER_E, E_START);
+            break;
+          }
+          if(isCurrentSymbol(SymbolTable.TRUE)) //R -> 'true' => 'true'
+            createTerminalASTNode(ASTNodeType.TRUE, SymbolTable.TRUE);
+          else if(isCurrentSymbol(SymbolTable.FALSE)) //R -> 'false' => 'false'
+            createTerminalASTNode(ASTNodeType.FALSE, SymbolTable.FALSE);
+          else if(isCurrentSymbol(SymbolTable.NIL)) //R -> 'nil' => 'nil'
+            createTerminalASTNode(ASTNodeType.NIL, SymbolTable.NIL);
+          else if(isCurrentSymbol(SymbolTable.DUMMY)) //R -> 'dummy' => 'dummy'
+            createTerminalASTNode(ASTNodeType.DUMMY, SymbolTable.DUMMY);
+          //an identifier, integer or string was pushed by readNT() already
+          state = popControl();
+          break;
+        case RN_AFTER_E:
+          if(!isCurrentTokenType(TokenType.R_PAREN))
+            throw new ParseException("RN: ')' expected");
+          state = popControl();
+          break;
+
+        /*
+         * D -> Da 'within' D => 'within'
+         *   -> Da;
+         */
+        case D_START:
+          pushRegion(beginRegion(ParsedRegion.D));
+          state = call(D_AFTER_DA, DA_START); //D -> Da
+          break;
+        case D_AFTER_DA:
+          if(isCurrentSymbol(SymbolTable.WITHIN)){ //D -> Da 'within' D => 'within'
+            readNT();
+            state = call(D_AFTER_WITHIN, D_START);
+          }
+          else{
+            endRegion(popRegion());
+            state = popControl();
+          }
+          break;
+        case D_AFTER_WITHIN:
+          buildNAryASTNode(ASTNodeType.WITHIN, 2);
+          endRegion(popRegion());
+          state = popControl();
+          break;
+
+        /*
+         * Da -> Dr ('and' Dr)+ => 'and'
+         *    -> Dr;
+         * The number of Drs after the first is kept under the return state.
+         */
+        case DA_START:
+          pushControl(0);
+          state = call(DA_AFTER_DR, DR_START); //Da -> Dr
+          break;
+        case DA_AFTER_DR:{
+          int treesToPop = popControl();
+          if(isCurrentSymbol(SymbolTable.AND)){ //Da -> Dr ( 'and' Dr )+ => 'and'
+            readNT();
+            pushControl(treesToPop+1);
+            state = call(DA_AFTER_DR, DR_START);
+          }
+          else{
+            if(treesToPop > 0) buildNAryASTNode(ASTNodeType.SIMULTDEF, treesToPop+1);
+            state = popControl();
+          }
+          break;
+        }
+
+        /*
+         * Dr -> 'rec' Db => 'rec'
+         *    -> Db;
+         */
+        case DR_START:
+          if(isCurrentSymbol(SymbolTable.REC)){ //Dr -> 'rec' Db => 'rec'
+            readNT();
+            state = call(DR_AFTER_DB, DB_START);
+          }
+          else //Dr -> Db, which returns straight to Dr's caller
+            state = DB_START;
+          break;
+        case DR_AFTER_DB:
+          buildNAryASTNode(ASTNodeType.REC, 1);
+          state = popControl();
+          break;
+
+        /*
+         * Db -> Vl '=' E => '='
+         *    -> '<IDENTIFIER>' Vb+ '=' E => 'fcn_form'
+         *    -> '(' D ')';
+         */
+        case DB_START:
+          if(isCurrentTokenType(TokenType.L_PAREN)){ //Db -> '(' D ')'
+            readNT();
+            state = call(DB_AFTER_D, D_START);
+          }
+          else if(isCurrentTokenType(TokenType.IDENTIFIER))
+            state = call(procDBHead(), E_START); //what the state procDBHead() returns needs is pushed under it
+          else
+            state = popControl();
+          break;
+        case DB_AFTER_D:
+          if(!isCurrentTokenType(TokenType.R_PAREN))
+            throw new ParseException("DB: ')' expected");
+          readNT();
+          state = popControl();
+          break;
+        case DB_AFTER_EQUAL:
+          buildNAryASTNode(ASTNodeType.EQUAL, 2);
+          state = popControl();
+          break;
+        case DB_AFTER_FCNFORM:
+          buildNAryASTNode(ASTNodeType.FCNFORM, popControl()+2); //+1 for the last E and +1 for the first identifier
+          state = popControl();
+          break;
+
+        case DONE:
+          if(controlSize!=0)
+            throw new IllegalStateException("unbalanced parser control stack"); //should never happen
+          return;
+        default:
+          throw new IllegalStateException("unknown parser state "+state); //should never happen
+      }
     }
-    else
-      procBP(); //Bs -> Bp
-      //extra readNT in procBP()
   }
-  
 
-  private void procBP(){
-      /**
-   * <pre>
-   * Bp -> A ('gr' | '>' ) A => 'gr'
-   *    -> A ('ge' | '>=' ) A => 'ge'
-   *    -> A ('ls' | '<' ) A => 'ge'
-   *    -> A ('le' | '<=' ) A => 'ge'
-   *    -> A 'eq' A => 'eq'
-   *    -> A 'ne' A => 'ne'
-   *    -> A;
-   * </pre>
-   */
-    procA(); //Bp -> A
+  private int call(int returnState, int procedure){
+    pushControl(returnState);
+    return procedure;
+  }
 
-    if(isCurrentToken(TokenType.KEYWORD,"gr")||isCurrentToken(TokenType.OPERATOR,">")){ //Bp -> A('gr' | '>' ) A => 'gr'
-      readNT();
-      procA(); //extra readNT in procA()
-      buildNAryASTNode(ASTNodeType.GR, 2);
-    }
-    else if(isCurrentToken(TokenType.KEYWORD,"ge")||isCurrentToken(TokenType.OPERATOR,">=")){ //Bp -> A ('ge' | '>=') A => 'ge'
-      readNT();
-      procA(); //extra readNT in procA()
-      buildNAryASTNode(ASTNodeType.GE, 2);
-    }
-    else if(isCurrentToken(TokenType.KEYWORD,"ls")||isCurrentToken(TokenType.OPERATOR,"<")){ //Bp -> A ('ls' | '<' ) A => 'ls'
-      readNT();
-      procA(); //extra readNT in procA()
-      buildNAryASTNode(ASTNodeType.LS, 2);
-    }
-    else if(isCurrentToken(TokenType.KEYWORD,"le")||isCurrentToken(TokenType.OPERATOR,"<=")){ //Bp -> A ('le' | '<=') A => 'le'
-      readNT();
-      procA(); //extra readNT in procA()
-      buildNAryASTNode(ASTNodeType.LE, 2);
-    }
-    else if(isCurrentToken(TokenType.KEYWORD,"eq")){ //Bp -> A 'eq' A => 'eq'
-      readNT();
-      procA(); //extra readNT in procA()
-      buildNAryASTNode(ASTNodeType.EQ, 2);
-    }
-    else if(isCurrentToken(TokenType.KEYWORD,"ne")){ //Bp -> A 'ne' A => 'ne'
-      readNT();
-      procA(); //extra readNT in procA()
-      buildNAryASTNode(ASTNodeType.NE, 2);
-    }
+  private void addPendingE(int arity){
+    //a 'let' or 'fn' of the E being parsed, whose region is on top of the region stack already
+    int pendingCount = popControl();
+    pushControl(arity);
+    pushControl(pendingCount+1);
   }
-  
-  
-  private void procA(){
-  /**
-   * <pre>
-   * A -> A '+' At => '+'
-   *   -> A '-' At => '-'
-   *   ->   '+' At
-   *   ->   '-' At => 'neg'
-   *   -> At;
-   * </pre>
-   */
-    if(isCurrentToken(TokenType.OPERATOR, "+")){ //A -> '+' At
-      readNT();
-      procAT(); //extra readNT in procAT()
-    }
-    else if(isCurrentToken(TokenType.OPERATOR, "-")){ //A -> '-' At => 'neg'
-      readNT();
-      procAT(); //extra readNT in procAT()
-      buildNAryASTNode(ASTNodeType.NEG, 1);
-    }
-    else
-      procAT(); //extra readNT in procAT()
-    
-    boolean plus = true;
-    while(isCurrentToken(TokenType.OPERATOR, "+")||isCurrentToken(TokenType.OPERATOR, "-")){
-      if(currentToken.getValue().equals("+"))
-        plus = true;
-      else if(currentToken.getValue().equals("-"))
-        plus = false;
-      readNT();
-      procAT(); //extra readNT in procAT()
-      if(plus) //A -> A '+' At => '+'
-        buildNAryASTNode(ASTNodeType.PLUS, 2);
-      else //A -> A '-' At => '-'
-        buildNAryASTNode(ASTNodeType.MINUS, 2);
-    }
+
+  private boolean isStartOfRn(){
+    return isCurrentTokenType(TokenType.INTEGER)||
+        isCurrentTokenType(TokenType.STRING)||
+        isCurrentTokenType(TokenType.IDENTIFIER)||
+        isCurrentSymbol(SymbolTable.TRUE)||
+        isCurrentSymbol(SymbolTable.FALSE)||
+        isCurrentSymbol(SymbolTable.NIL)||
+        isCurrentSymbol(SymbolTable.DUMMY)||
+        isCurrentTokenType(TokenType.L_PAREN);
   }
-  
 
-  private void procAT(){
-  /**
-   * <pre>
-   * At -> At '*' Af => '*'
-   *    -> At '/' Af => '/'
-   *    -> Af;
-   * </pre>
-   */
-    procAF(); //At -> Af;
-    //extra readNT in procAF()
-    boolean mult = true;
-    while(isCurrentToken(TokenType.OPERATOR, "*")||isCurrentToken(TokenType.OPERATOR, "/")){
-      if(currentToken.getValue().equals("*"))
-        mult = true;
-      else if(currentToken.getValue().equals("/"))
-        mult = false;
-      readNT();
-      procAF(); //extra readNT in procAF()
-      if(mult) //At -> At '*' Af => '*'
-        buildNAryASTNode(ASTNodeType.MULT, 2);
-      else //At -> At '/' Af => '/'
-        buildNAryASTNode(ASTNodeType.DIV, 2);
-    }
+  private void pushControl(int value){
+    if(controlSize==control.length)
+      control = Arrays.copyOf(control, controlSize*2);
+    control[controlSize++] = value;
   }
-  
 
-  private void procAF(){
-  /**
-   * <pre>
-   * Af -> Ap '**' Af => '**'
-   *    -> Ap;
-   * </pre>
-   */
-    procAP(); // Af -> Ap;
-    //extra readNT in procAP()
-    if(isCurrentToken(TokenType.OPERATOR, "**")){ //Af -> Ap '**' Af => '**'
-      readNT();
-      procAF();
-      buildNAryASTNode(ASTNodeType.EXP, 2);
-    }
+  private int popControl(){
+    return control[--controlSize];
   }
-  
-  
 
-  private void procAP(){
-  /**
-   * <pre>
-   * Ap -> Ap '@' '&lt;IDENTIFIER&gt;' R => '@'
-   *    -> R; 
-   * </pre>
-   */
-    procR(); //Ap -> R;
-    //extra readNT in procR()
-    while(isCurrentToken(TokenType.OPERATOR, "@")){ //Ap -> Ap '@' '<IDENTIFIER>' R => '@'
-      readNT();
-      if(!isCurrentTokenType(TokenType.IDENTIFIER))
-        throw new ParseException("AP: expected Identifier");
-      readNT();
-      procR(); //extra readNT in procR()
-      buildNAryASTNode(ASTNodeType.AT, 3);
-    }
+  private int peekControl(){
+    return control[controlSize-1];
   }
-  
-  private void procR(){
-  /**
-   * <pre>
-   * R -> R Rn => 'gamma'
-   *   -> Rn;
-   * </pre>
-   */
-    procRN(); //R -> Rn; NO extra readNT in procRN(). See while loop below for reason.
-    readNT();
-    while(isCurrentTokenType(TokenType.INTEGER)||
-        isCurrentTokenType(TokenType.STRING)|| 
-        isCurrentTokenType(TokenType.IDENTIFIER)||
-        isCurrentToken(TokenType.KEYWORD, "true")||
-        isCurrentToken(TokenType.KEYWORD, "false")||
-        isCurrentToken(TokenType.KEYWORD, "nil")||
-        isCurrentToken(TokenType.KEYWORD, "dummy")||
-        isCurrentTokenType(TokenType.L_PAREN)){ //R -> R Rn => 'gamma'
-      procRN(); //NO extra readNT in procRN(). This is important because if we do an extra readNT in procRN and currentToken happens to
-                //be an INTEGER, IDENTIFIER, or STRING, it will get pushed on the stack. Then, the GAMMA node that we build will have the
-                //wrong kids. There are workarounds, e.g. keeping the extra readNT in procRN() and checking here if the last token read
-                //(which was read in procRN()) is an INTEGER, IDENTIFIER, or STRING and, if so, to pop it, call buildNAryASTNode, and then
-                //push it again. I chose this option because it seems cleaner.
-      buildNAryASTNode(ASTNodeType.GAMMA, 2);
-      readNT();
-    }
+
+  private void pushRegion(ParsedRegion region){
+    //null when regions are not recorded, which endRegion() then ignores
+    if(regionCount==openRegions.length)
+      openRegions = Arrays.copyOf(openRegions, regionCount*2);
+    openRegions[regionCount++] = region;
   }
 
+  private ParsedRegion popRegion(){
+    ParsedRegion region = openRegions[--regionCount];
+    openRegions[regionCount] = null;
+    return region;
+  }
 
-  private void procRN(){
-  /**
-   * NOTE: NO extra readNT in procRN. See comments in {@link #procR()} for explanation.
-   * <pre>
-   * Rn -> '&lt;IDENTIFIER&gt;'
-   *    -> '&lt;INTEGER&gt;'
-   *    -> '&lt;STRING&gt;'
-   *    -> 'true' => 'true'
-   *    -> 'false' => 'false'
-   *    -> 'nil' => 'nil'
-   *    -> '(' E ')'
-   *    -> 'dummy' => 'dummy'
-   * </pre>
-   */
-    if(isCurrentTokenType(TokenType.IDENTIFIER)|| //R -> '<IDENTIFIER>'
-       isCurrentTokenType(TokenType.INTEGER)|| //R -> '<INTEGER>' 
-       isCurrentTokenType(TokenType.STRING)){ //R-> '<STRING>'
-    }
-    else if(isCurrentToken(TokenType.KEYWORD, "true")){ //R -> 'true' => 'true'
-      createTerminalASTNode(ASTNodeType.TRUE, "true");
-    }
-    else if(isCurrentToken(TokenType.KEYWORD, "false")){ //R -> 'false' => 'false'
-      createTerminalASTNode(ASTNodeType.FALSE, "false");
-    } 
-    else if(isCurrentToken(TokenType.KEYWORD, "nil")){ //R -> 'nil' => 'nil'
-      createTerminalASTNode(ASTNodeType.NIL, "nil");
-    }
-    else if(isCurrentTokenType(TokenType.L_PAREN)){
-      readNT();
-      procE(); //extra readNT in procE()
-      if(!isCurrentTokenType(TokenType.R_PAREN))
-        throw new ParseException("RN: ')' expected");
-    }
-    else if(isCurrentToken(TokenType.KEYWORD, "dummy")){ //R -> 'dummy' => 'dummy'
-      createTerminalASTNode(ASTNodeType.DUMMY, "dummy");
+  private ASTNodeType getInfixOperator(){
+    switch(currentSymbol){
+      case SymbolTable.OR: return ASTNodeType.OR;
+      case SymbolTable.AMPERSAND: return ASTNodeType.AND;
+      case SymbolTable.GR: case SymbolTable.GREATER: return ASTNodeType.GR;
+      case SymbolTable.GE: case SymbolTable.GREATER_EQUAL: return ASTNodeType.GE;
+      case SymbolTable.LS: case SymbolTable.LESS: return ASTNodeType.LS;
+      case SymbolTable.LE: case SymbolTable.LESS_EQUAL: return ASTNodeType.LE;
+      case SymbolTable.EQ: return ASTNodeType.EQ;
+      case SymbolTable.NE: return ASTNodeType.NE;
+      case SymbolTable.PLUS: return ASTNodeType.PLUS;
+      case SymbolTable.MINUS: return ASTNodeType.MINUS;
+      case SymbolTable.TIMES: return ASTNodeType.MULT;
+      case SymbolTable.DIVIDE: return ASTNodeType.DIV;
+      case SymbolTable.POWER: return ASTNodeType.EXP;
+      case SymbolTable.AT: return ASTNodeType.AT;
+      default: return null;
     }
   }
 
-  private void procD(){
-  /**
-   * <pre>
-   * D -> Da 'within' D => 'within'
-   *   -> Da;
-   * </pre>
-   */
-    procDA(); //D -> Da
-    //extra readToken() in procDA()
-    if(isCurrentToken(TokenType.KEYWORD, "within")){ //D -> Da 'within' D => 'within'
-      readNT();
-      procD();
-      buildNAryASTNode(ASTNodeType.WITHIN, 2);
+  private static int getPrecedence(ASTNodeType operator){
+    switch(operator){
+      case OR: return OR_LEVEL;
+      case AND: return AND_LEVEL;
+      case NOT: return NOT_LEVEL;
+      case GR: case GE: case LS: case LE: case EQ: case NE: return COMPARISON_LEVEL;
+      case PLUS: case MINUS: case NEG: return ADD_LEVEL;
+      case MULT: case DIV: return MULT_LEVEL;
+      case EXP: return EXP_LEVEL;
+      default: return AT_LEVEL;
     }
   }
-  
 
-  private void procDA(){
-  /**
-   * <pre>
-   * Da -> Dr ('and' Dr)+ => 'and'
-   *    -> Dr;
-   * </pre>
-   */
-    procDR(); //Da -> Dr
-    //extra readToken() in procDR()
-    int treesToPop = 0;
-    while(isCurrentToken(TokenType.KEYWORD, "and")){ //Da -> Dr ( 'and' Dr )+ => 'and'
-      readNT();
-      procDR(); //extra readToken() in procDR()
-      treesToPop++;
-    }
-    if(treesToPop > 0) buildNAryASTNode(ASTNodeType.SIMULTDEF, treesToPop+1);
+  private void pushOperator(ASTNodeType operator){
+    if(operatorCount==operators.length)
+      operators = Arrays.copyOf(operators, operatorCount*2);
+    operators[operatorCount++] = operator;
   }
-  
 
-  private void procDR(){
-  /**
-   * Dr -> 'rec' Db => 'rec'
-   *    -> Db;
-   */
-    if(isCurrentToken(TokenType.KEYWORD, "rec")){ //Dr -> 'rec' Db => 'rec'
-      readNT();
-      procDB(); //extra readToken() in procDB()
-      buildNAryASTNode(ASTNodeType.REC, 1);
-    }
-    else{ //Dr -> Db
-      procDB(); //extra readToken() in procDB()
-    }
+  private void buildOperator(ASTNodeType operator){
+    if(operator==ASTNodeType.NOT || operator==ASTNodeType.NEG)
+      buildNAryASTNode(operator, 1);
+    else if(operator==ASTNodeType.AT)
+      buildNAryASTNode(operator, 3);
+    else
+      buildNAryASTNode(operator, 2);
   }
   
-
-  private void procDB(){
-  /**
-   * <pre>
-   * Db -> Vl '=' E => '='
-   *    -> '&lt;IDENTIFIER&gt;' Vb+ '=' E => 'fcn_form'
-   *    -> '(' D ')';
-   * </pre>
-   */
-    if(isCurrentTokenType(TokenType.L_PAREN)){ //Db -> '(' D ')'
-      procD();
+  private int procDBHead(){
+    /*
+     * Parses the Vl '=' or '<IDENTIFIER>' Vb+ '=' a Db starts with, and returns the state that
+     * builds the Db once its E is parsed.
+     */
+    readNT();
+    if(isCurrentSymbol(SymbolTable.COMMA)){ //Db -> Vl '=' E => '='
       readNT();
-      if(!isCurrentTokenType(TokenType.R_PAREN))
-        throw new ParseException("DB: ')' expected");
+      procVL(); //extra readNT in procVB()
+      //VL makes its COMMA nodes for all the tokens EXCEPT the ones
+      //we just read above (i.e., the first identifier and the comma after it)
+      //Hence, we must pop the top of the tree VL just made and put it under a
+      //comma node with the identifier it missed.
+      if(!isCurrentSymbol(SymbolTable.EQUAL))
+        throw new ParseException("DB: = expected.");
+      buildNAryASTNode(ASTNodeType.COMMA, 2);
       readNT();
+      return DB_AFTER_EQUAL;
     }
-    else if(isCurrentTokenType(TokenType.IDENTIFIER)){
+    else if(isCurrentSymbol(SymbolTable.EQUAL)){ //Db -> Vl '=' E => '='; if Vl had only one IDENTIFIER (no commas)
       readNT();
-      if(isCurrentToken(TokenType.OPERATOR, ",")){ //Db -> Vl '=' E => '='
-        readNT();
-        procVL(); //extra readNT in procVB()
-        //VL makes its COMMA nodes for all the tokens EXCEPT the ones
-        //we just read above (i.e., the first identifier and the comma after it)
-        //Hence, we must pop the top of the tree VL just made and put it under a
-        //comma node with the identifier it missed.
-        if(!isCurrentToken(TokenType.OPERATOR, "="))
-          throw new ParseException("DB: = expected.");
-        buildNAryASTNode(ASTNodeType.COMMA, 2);
-        readNT();
-        procE(); //extra readNT in procE()
-        buildNAryASTNode(ASTNodeType.EQUAL, 2);
-      }
-      else{ //Db -> '<IDENTIFIER>' Vb+ '=' E => 'fcn_form'
-        if(isCurrentToken(TokenType.OPERATOR, "=")){ //Db -> Vl '=' E => '='; if Vl had only one IDENTIFIER (no commas)
-          readNT();
-          procE(); //extra readNT in procE()
-          buildNAryASTNode(ASTNodeType.EQUAL, 2);
-        }
-        else{ //Db -> '<IDENTIFIER>' Vb+ '=' E => 'fcn_form'
-          int treesToPop = 0;
-
-          while(isCurrentTokenType(TokenType.IDENTIFIER) || isCurrentTokenType(TokenType.L_PAREN)){
-            procVB(); //extra readNT in procVB()
-            treesToPop++;
-          }
+      return DB_AFTER_EQUAL;
+    }
+    else{ //Db -> '<IDENTIFIER>' Vb+ '=' E => 'fcn_form'
+      int treesToPop = procVBs();
 
-          if(treesToPop==0)
-            throw new ParseException("E: at least one 'Vb' expected");
+      if(!isCurrentSymbol(SymbolTable.EQUAL))
+        throw new ParseException("DB: = expected.");
 
-          if(!isCurrentToken(TokenType.OPERATOR, "="))
-            throw new ParseException("DB: = expected.");
+      readNT();
+      pushControl(treesToPop);
+      return DB_AFTER_FCNFORM;
+    }
+  }
 
-          readNT();
-          procE(); //extra readNT in procE()
+  private int procVBs(){
+    //Vb+, for 'fn' and for a function form; returns the number of Vbs
+    int treesToPop = 0;
 
-          buildNAryASTNode(ASTNodeType.FCNFORM, treesToPop+2); //+1 for the last E and +1 for the first identifier
-        }
-      }
+    while(isCurrentTokenType(TokenType.IDENTIFIER) || isCurrentTokenType(TokenType.L_PAREN)){
+      procVB(); //extra readNT in procVB()
+      treesToPop++;
     }
+
+    if(treesToPop==0)
+      throw new ParseException("E: at least one 'Vb' expected");
+    return treesToPop;
   }
-  
+
   private void procVB(){
   /**
    * <pre>
@@ -630,7 +871,7 @@ public class Parser{
     else if(isCurrentTokenType(TokenType.L_PAREN)){
       readNT();
       if(isCurrentTokenType(TokenType.R_PAREN)){ //Vb -> '(' ')' => '()'
-        createTerminalASTNode(ASTNodeType.PAREN, "");
+        createTerminalASTNode(ASTNodeType.PAREN, pool.addLiteral(""));
         readNT();
       }
       else{ //Vb -> '(' Vl ')'
@@ -654,7 +895,7 @@ public class Parser{
     else{
       readNT();
       int treesToPop = 0;
-      while(isCurrentToken(TokenType.OPERATOR, ",")){ //Vl -> '<IDENTIFIER>' list ',' => ','?;
+      while(isCurrentSymbol(SymbolTable.COMMA)){ //Vl -> '<IDENTIFIER>' list ',' => ','?;
         readNT();
         if(!isCurrentTokenType(TokenType.IDENTIFIER))
           throw new ParseException("VL: Identifier expected");
@@ -4,25 +4,62 @@ import scanner.*;
 import parser.*;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class rpal20 {
+  /*
+   * rpal20 <file>                   runs a source file, or a file compiled by -c
+   * rpal20 -ast <source>            prints the abstract syntax tree of a source file
+   * rpal20 -c <source> [<output>]   compiles a source file; the output defaults to <source>c
+   */
   public static void main(String[] args) throws Exception {
-    String fileName = args[0];
-    AST ast = null;
+    if (args[0].equals("-ast")) {
+      new Parser(ParallelTokenizer.tokenize(mapFile(args[1]))).buildAST().print();
+      return;
+    }
+    if (args[0].equals("-c")) {
+      String output = args.length > 2 ? args[2] : args[1] + "c";
+      CompiledProgram.writeFile(compile(mapFile(args[1])), output);
+      return;
+    }
 
-    try {
-      Scanner scanner = new Scanner(fileName);
-      Parser parser = new Parser(scanner);
-      ast = parser.buildAST();
-    } catch (IOException e) {
-      throw new ParseException("ERROR ");
+    ByteBuffer source = mapFile(args[0]);
+    Delta rootDelta = null;
+    if (CompiledProgram.isCompiledFile(source)) {
+      rootDelta = CompiledProgram.readFile(source);
+    } else {
+      // an unchanged program is read back from the cache instead of going through the front end
+      ProgramCache cache = ProgramCache.getDefault();
+      byte[] key = null;
+      if (cache != null) {
+        key = cache.getKey(source);
+        rootDelta = cache.get(key);
+      }
+      if (rootDelta == null) {
+        rootDelta = compile(source);
+        if (cache != null)
+          cache.put(key, rootDelta);
+      }
     }
 
-    ast.standardize();
-    CSEMachine csem = new CSEMachine(ast);
+    CSEMachine csem = new CSEMachine(rootDelta);
     csem.evaluateProgram();
     System.out.println();
 
   }
 
+  private static ByteBuffer mapFile(String fileName) {
+    try {
+      return Scanner.mapFile(fileName);
+    } catch (IOException e) {
+      throw new ParseException("ERROR ");
+    }
+  }
+
+  private static Delta compile(ByteBuffer source) {
+    Parser parser = new Parser(ParallelTokenizer.tokenize(source));
+    AST ast = parser.buildStandardizedAST();
+    return ast.createDeltas();
+  }
+
 }
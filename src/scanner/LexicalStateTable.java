@@ -0,0 +1,141 @@
+package scanner;
+
+import java.util.Arrays;
+
+/**
+ * Character-class and transition tables for the scanner's state machine.
+ *
+ * The tables are derived once from {@link LexicalRegexPatterns}, so the lexical grammar
+ * still has a single definition. For every state and every ASCII character we record the
+ * state the scanner moves to (or {@link #STOP} if the current token ends before that
+ * character). Characters whose columns are identical are then merged into one character
+ * class, which keeps the transition table small enough to stay in cache.
+ */
+public class LexicalStateTable{
+  //States of the machine. START is the only state in which no token is in progress.
+  public static final int START = 0;
+  public static final int IDENTIFIER = 1;
+  public static final int INTEGER = 2;
+  public static final int OPERATOR = 3;
+  public static final int SLASH = 4;          //an operator that so far consists of a single '/'
+  public static final int COMMENT = 5;
+  public static final int COMMENT_END = 6;    //the newline that ends a comment has been consumed
+  public static final int STRING = 7;
+  public static final int STRING_END = 8;     //the closing quote has been consumed
+  public static final int SPACE = 9;
+  public static final int L_PAREN = 10;
+  public static final int R_PAREN = 11;
+  public static final int SEMICOLON = 12;
+  public static final int COMMA = 13;
+  public static final int INVALID = 14;       //a character that cannot start or continue a token
+  public static final int STATE_COUNT = 15;
+
+  public static final int STOP = -1; //no transition: the token in progress ends before this character
+
+  private static final char NON_ASCII_REPRESENTATIVE = '\u0080';
+
+  static final byte[] charClass = new byte[128];
+  static final int nonAsciiClass;
+  static final int classCount;
+  static final byte[] transitions; //transitions[state*classCount + class]
+
+  static{
+    byte[][] columns = new byte[129][];
+    for(int c=0;c<128;++c)
+      columns[c] = buildColumn((char)c);
+    columns[128] = buildColumn(NON_ASCII_REPRESENTATIVE);
+
+    //merge characters with identical columns into one class
+    byte[][] classColumns = new byte[129][];
+    int count = 0;
+    int[] classOf = new int[129];
+    for(int c=0;c<129;++c){
+      int cls = 0;
+      while(cls<count && !Arrays.equals(classColumns[cls], columns[c]))
+        cls++;
+      if(cls==count)
+        classColumns[count++] = columns[c];
+      classOf[c] = cls;
+    }
+
+    classCount = count;
+    for(int c=0;c<128;++c)
+      charClass[c] = (byte)classOf[c];
+    nonAsciiClass = classOf[128];
+
+    transitions = new byte[STATE_COUNT*classCount];
+    for(int cls=0;cls<classCount;++cls)
+      for(int state=0;state<STATE_COUNT;++state)
+        transitions[state*classCount+cls] = classColumns[cls][state];
+  }
+
+  /**
+   * Returns the state reached from the given state on the given input byte (0-255). All
+   * bytes of a non-ASCII UTF-8 sequence share one class, as no such character is part of
+   * the lexical grammar.
+   */
+  public static int nextState(int state, int c){
+    int cls = c<128?charClass[c]:nonAsciiClass;
+    return transitions[state*classCount+cls];
+  }
+
+  /**
+   * Computes the transitions out of every state on character c. This mirrors the
+   * decisions the scanner used to take with one regex match per character.
+   */
+  private static byte[] buildColumn(char c){
+    String s = Character.toString(c);
+    boolean letter = LexicalRegexPatterns.LetterPattern.matcher(s).matches();
+    boolean digit = LexicalRegexPatterns.DigitPattern.matcher(s).matches();
+    boolean identifier = LexicalRegexPatterns.IdentifierPattern.matcher(s).matches();
+    boolean opSymbol = LexicalRegexPatterns.OpSymbolPattern.matcher(s).matches();
+    boolean space = LexicalRegexPatterns.SpacePattern.matcher(s).matches();
+    boolean punctuation = LexicalRegexPatterns.PunctuationPattern.matcher(s).matches();
+    boolean stringChar = LexicalRegexPatterns.StringPattern.matcher(s).matches();
+
+    byte[] column = new byte[STATE_COUNT];
+    Arrays.fill(column, (byte)STOP);
+
+    //START: same order of checks as the regex-based buildToken()
+    if(letter)
+      column[START] = IDENTIFIER;
+    else if(digit)
+      column[START] = INTEGER;
+    else if(opSymbol)
+      column[START] = c=='/'?(byte)SLASH:(byte)OPERATOR;
+    else if(c=='\'')
+      column[START] = STRING;
+    else if(space)
+      column[START] = SPACE;
+    else if(punctuation)
+      column[START] = c=='('?(byte)L_PAREN:c==')'?(byte)R_PAREN:c==';'?(byte)SEMICOLON:(byte)COMMA;
+    else
+      column[START] = INVALID;
+
+    if(identifier)
+      column[IDENTIFIER] = IDENTIFIER;
+    if(digit)
+      column[INTEGER] = INTEGER;
+    if(opSymbol){
+      column[OPERATOR] = OPERATOR;
+      column[SLASH] = c=='/'?(byte)COMMENT:(byte)OPERATOR;
+    }
+    if(space)
+      column[SPACE] = SPACE;
+
+    //a comment runs up to and including the next newline. Characters outside CommentPattern
+    //used to make the regex scanner spin forever; they are simply skipped now.
+    column[COMMENT] = c=='\n'?(byte)COMMENT_END:(byte)COMMENT;
+
+    //a string ends at the next quote. A character the string grammar does not allow ends
+    //the string as an invalid token (the regex scanner never returned in this case).
+    if(c=='\'')
+      column[STRING] = STRING_END;
+    else if(stringChar)
+      column[STRING] = STRING;
+    else
+      column[STRING] = INVALID;
+
+    return column;
+  }
+}
@@ -0,0 +1,131 @@
+package scanner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tokenizes large sources on several cores. The input is split into chunks that end just after
+ * a newline, every chunk is scanned on the fork-join pool as if a token started at its first
+ * byte, and the chunks' token streams are then joined in order.
+ *
+ * A chunk boundary can only fall inside a token if that token is a string literal: identifiers,
+ * numbers, operators and punctuation never contain a newline, and a comment ends with the
+ * newline that precedes the boundary. So when the previous chunk ends inside an open string,
+ * the join pass rescans the next chunk with the string resumed, and the speculative tokens of
+ * that chunk are dropped. Line numbers are made absolute while joining.
+ *
+ * The result is the same TokenStream that Scanner.tokenize() produces for the whole input.
+ */
+public class ParallelTokenizer{
+  private static final int CHUNK_SIZE = 1<<18; //small enough to balance the work, big enough to amortize the tasks
+
+  public static TokenStream tokenize(String inputFile) throws IOException{
+    return tokenize(Scanner.mapFile(inputFile));
+  }
+
+  public static TokenStream tokenize(ByteBuffer input){
+    int length = input.limit();
+    int parallelism = ForkJoinPool.getCommonPoolParallelism();
+    if(length<2*CHUNK_SIZE || parallelism<2)
+      return new Scanner(input).tokenize();
+
+    List<Chunk> chunks = split(input);
+    ForkJoinPool.commonPool().invoke(new ScanChunks(chunks, 0, chunks.size()));
+    return join(input, chunks);
+  }
+
+  private static List<Chunk> split(ByteBuffer input){
+    List<Chunk> chunks = new ArrayList<Chunk>();
+    int length = input.limit();
+    int start = 0;
+    while(start<length){
+      int end = Math.min(start+CHUNK_SIZE, length);
+      while(end<length && input.get(end-1)!='\n')
+        end++;
+      chunks.add(new Chunk(input, start, end));
+      start = end;
+    }
+    return chunks;
+  }
+
+  private static TokenStream join(ByteBuffer input, List<Chunk> chunks){
+    int capacity = 0;
+    for(Chunk chunk: chunks)
+      capacity += chunk.tokens.size();
+    TokenStream result = new TokenStream(input, capacity);
+
+    int lineOffset = 0; //number of lines before the current chunk
+    int openStringOffset = -1; //a string the previous chunk left open, with its absolute line number
+    int openStringLineNumber = 0;
+    for(Chunk chunk: chunks){
+      Scanner scanner = chunk.scanner;
+      TokenStream tokens = chunk.tokens;
+      int startLineNumber = 1;
+      int tokenLineOffset = lineOffset;
+      if(openStringOffset>=0){
+        //the speculative scan started in the wrong state. Rescan the chunk inside the string.
+        startLineNumber = lineOffset+1;
+        scanner = new Scanner(input, chunk.start, chunk.end, startLineNumber);
+        scanner.resumeString(openStringOffset, openStringLineNumber);
+        tokens = scanner.tokenize();
+        tokenLineOffset = 0; //the rescan numbered lines absolutely
+      }
+
+      int count = tokens.size();
+      if(scanner.getOpenStringOffset()>=0){
+        count--; //drop the INVALID entry for the open string; the next chunk continues it
+        openStringOffset = scanner.getOpenStringOffset();
+        openStringLineNumber = scanner.getOpenStringLineNumber()+tokenLineOffset;
+      }
+      else
+        openStringOffset = -1;
+      result.append(tokens, 0, count, tokenLineOffset, 0);
+      lineOffset += scanner.getSourceLineNumber()-startLineNumber;
+    }
+
+    if(openStringOffset>=0) //a string still open at the end of the file is an invalid token
+      result.add(TokenStream.INVALID, openStringOffset, 0, openStringLineNumber, SymbolTable.NONE);
+    return result;
+  }
+
+  private static class Chunk{
+    final int start;
+    final int end;
+    final Scanner scanner;
+    TokenStream tokens;
+
+    Chunk(ByteBuffer input, int start, int end){
+      this.start = start;
+      this.end = end;
+      this.scanner = new Scanner(input, start, end, 1);
+    }
+  }
+
+  private static class ScanChunks extends RecursiveAction{
+    private static final long serialVersionUID = 1L;
+    private final List<Chunk> chunks;
+    private final int from;
+    private final int to;
+
+    ScanChunks(List<Chunk> chunks, int from, int to){
+      this.chunks = chunks;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute(){
+      if(to-from==1){
+        Chunk chunk = chunks.get(from);
+        chunk.tokens = chunk.scanner.tokenize();
+        return;
+      }
+      int middle = (from+to)>>>1;
+      invokeAll(new ScanChunks(chunks, from, middle), new ScanChunks(chunks, middle, to));
+    }
+  }
+}
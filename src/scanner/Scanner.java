@@ -1,306 +1,228 @@
 package scanner;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.Arrays;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 public class Scanner{
   /*
    * The Scanner class is responsible for reading the input file and returning the next token.
    * It combines a lexer and a screener.
+   *
+   * The input file is memory-mapped and scanned in place as UTF-8 bytes. Tokens are recognized by
+   * the state machine in LexicalStateTable: every byte is mapped to its character class with one
+   * table lookup, and the class selects the next state. No objects are created per character, and
+   * a token only records where its text lies in the mapped file (see Token). Identifiers, keywords
+   * and operators are interned in the SymbolTable as they are recognized.
    */
 
-  private BufferedReader buffer; //buffered reader to read input file
-  private String extraCharRead; //used to store extra character read from input file
-  private final List<String> reservedIdentifiers = Arrays.asList(new String[]{"let","in","within","fn","where","aug","or",
-                                                                              "not","gr","ge","ls","le","eq","ne","true",
-                                                                              "false","nil","dummy","rec","and"}); 
+  private ByteBuffer input; //the complete input file
+  private int inputLength; //index just past the last byte to scan
+  private int position; //index of the next byte to be read
   private int sourceLineNumber; //line number of the input file
-  
+
+  //a string literal the scanner is resuming or left open at the end of its range; see ParallelTokenizer
+  private int resumedStringOffset = -1;
+  private int resumedStringLineNumber;
+  private int openStringOffset = -1;
+  private int openStringLineNumber;
+
+  //the token most recently recognized by scanToken()
+  private int tokenOffset;
+  private int tokenLength;
+  private int tokenSymbol;
+  private int tokenLineNumber;
+
 
   public Scanner(String inputFile) throws IOException{
     /*
-     * The constructor of the Scanner class is responsible for opening the input file and initializing the
+     * The constructor of the Scanner class is responsible for mapping the input file and initializing the
      * sourceLineNumber to 1.
      */
-    sourceLineNumber = 1;
-    buffer = new BufferedReader(new InputStreamReader(new FileInputStream(new File(inputFile))));
+    this(mapFile(inputFile));
   }
-  
 
-  public Token readNextToken(){
+  public Scanner(ByteBuffer input){
     /*
-     * The `readNextToken()` method is responsible for reading the next token from the input file.
-     * It should return null if the file has ended.
+     * Scans source text that is already in memory, encoded as UTF-8.
      */
-    Token nextToken = null;
-    String nextChar;
-    if(extraCharRead!=null){
-      nextChar = extraCharRead;
-      extraCharRead = null;
-    } else
-      nextChar = readNextChar();
-
-    if(nextChar!=null)
-      nextToken = buildToken(nextChar); 
-    
-    return nextToken; 
+    this(input, 0, input.limit(), 1);
   }
 
-  private String readNextChar(){
+  Scanner(ByteBuffer input, int from, int to, int sourceLineNumber){
     /*
-     * The `readNextChar()` method is responsible for reading the next character from the input file.
+     * Scans only input[from..to), numbering lines from sourceLineNumber. Tokens still refer to
+     * offsets in the whole buffer.
      */
-    String nextChar = null;
-    try{
-      int c = buffer.read();
-      if(c!=-1){
-        nextChar = Character.toString((char)c);
-        if(nextChar.equals("\n")) sourceLineNumber++; //increment line number if we read a new line
-      } else
-          buffer.close();
-    }catch(IOException e){
+    this.input = input;
+    this.position = from;
+    this.inputLength = to;
+    this.sourceLineNumber = sourceLineNumber;
+  }
+
+  public static ByteBuffer mapFile(String inputFile) throws IOException{
+    //the mapping stays valid after the channel is closed
+    try(FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)){
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
     }
-    
-    return nextChar;
   }
 
-  private Token buildToken(String currentChar){
+  void resumeString(int stringOffset, int stringLineNumber){
     /*
-     * The `buildToken()` method is responsible for building the next token from the input file. 
-     * currentChar is the character currently being processed.
-     * It should return the token that was built.
+     * Makes the next token continue a string literal that was opened at stringOffset, before the
+     * start of this scanner's range.
      */
-    Token nextToken = null;
-    if(LexicalRegexPatterns.LetterPattern.matcher(currentChar).matches()){
-      nextToken = buildIdentifierToken(currentChar);
-    }
-    else if(LexicalRegexPatterns.DigitPattern.matcher(currentChar).matches()){
-      nextToken = buildIntegerToken(currentChar);
-    }
-    else if(LexicalRegexPatterns.OpSymbolPattern.matcher(currentChar).matches()){ 
-      nextToken = buildOperatorToken(currentChar);
-    }
-    else if(currentChar.equals("\'")){
-      nextToken = buildStringToken(currentChar);
-    }
-    else if(LexicalRegexPatterns.SpacePattern.matcher(currentChar).matches()){
-      nextToken = buildSpaceToken(currentChar);
-    }
-    else if(LexicalRegexPatterns.PunctuationPattern.matcher(currentChar).matches()){
-      nextToken = buildPunctuationPattern(currentChar);
-    }
-    
-    return nextToken;
+    resumedStringOffset = stringOffset;
+    resumedStringLineNumber = stringLineNumber;
   }
 
+  int getOpenStringOffset(){
+    //offset of the quote of a string that was still open at the end of the range, or -1
+    return openStringOffset;
+  }
 
-  private Token buildIdentifierToken(String currentChar){
-  /**
-   * buildIdentifierToken is responsible for building the Identifier token.
-   * Identifier -> Letter (Letter | Digit | '_')*
-   * currentChar is the character currently being processed.
-   * It should return the token that was built.
-   */
-    Token identifierToken = new Token();
-    identifierToken.setType(TokenType.IDENTIFIER);
-    identifierToken.setSourceLineNumber(sourceLineNumber);
-    StringBuilder sBuilder = new StringBuilder(currentChar);
-    
-    String nextChar = readNextChar();
-    while(nextChar!=null){ //null indicates the file ended
-      if(LexicalRegexPatterns.IdentifierPattern.matcher(nextChar).matches()){
-        sBuilder.append(nextChar);
-        nextChar = readNextChar();
-      }
-      else{
-        extraCharRead = nextChar;
-        break;
-      }
-    }
-    
-    String value = sBuilder.toString();
-    if(reservedIdentifiers.contains(value))
-      identifierToken.setType(TokenType.KEYWORD);
-    
-    identifierToken.setValue(value);
-    
-    return identifierToken;
+  int getOpenStringLineNumber(){
+    return openStringLineNumber;
+  }
+
+  int getSourceLineNumber(){
+    return sourceLineNumber;
   }
 
 
-  private Token buildIntegerToken(String currentChar){
+  public Token readNextToken(){
     /*
-     * The `buildIntegerToken()` method is responsible for building the integer token.
-     * Integer -> Digit+
-     * currentChar is the character currently being processed.
-     * It should return the token that was built.
+     * The `readNextToken()` method is responsible for reading the next token from the input file.
+     * It returns null if the file has ended, and also for a character that cannot start a token
+     * (scanning resumes after that character on the next call).
      */
-    Token integerToken = new Token();
-    integerToken.setType(TokenType.INTEGER);
-    integerToken.setSourceLineNumber(sourceLineNumber);
-    StringBuilder sBuilder = new StringBuilder(currentChar);
-    
-    String nextChar = readNextChar();
-    while(nextChar!=null){ //null indicates the file ended
-      if(LexicalRegexPatterns.DigitPattern.matcher(nextChar).matches()){
-        sBuilder.append(nextChar);
-        nextChar = readNextChar();
-      }
-      else{
-        extraCharRead = nextChar;
-        break;
-      }
-    }
-    
-    integerToken.setValue(sBuilder.toString());
-    
-    return integerToken;
+    if(position>=inputLength)
+      return null;
+
+    TokenType type = scanToken();
+    if(type==null)
+      return null;
+
+    Token token = new Token();
+    token.setType(type);
+    token.setSourceLineNumber(tokenLineNumber);
+    token.setSymbol(tokenSymbol);
+    if(tokenSymbol!=SymbolTable.NONE)
+      token.setValue(SymbolTable.name(tokenSymbol)); //the name is already interned, so it is never decoded again
+    else
+      token.setValue(input, tokenOffset, tokenLength); //Token decodes the text on demand
+    return token;
   }
 
+  /**
+   * Scans the rest of the input into a packed TokenStream. Whitespace and comments are
+   * dropped as they are scanned; no Token objects are created.
+   */
+  public TokenStream tokenize(){
+    TokenStream stream = new TokenStream(input, (inputLength-position)/4);
+    while(position<inputLength)
+      scanInto(stream);
+    return stream;
+  }
 
-  private Token buildOperatorToken(String currentChar){
+  boolean scanInto(TokenStream stream){
     /*
-     * The `buildOperatorToken()` method is responsible for building the operator token.
-     * Operator_symbol -> Operator_symbol+
-     * currentChar is the character currently being processed.
-     * It should return the token that was built.
+     * Scans the next token and adds it to stream. Returns false if it was whitespace or a comment,
+     * which are not added.
      */
-    Token opSymbolToken = new Token();
-    opSymbolToken.setType(TokenType.OPERATOR);
-    opSymbolToken.setSourceLineNumber(sourceLineNumber);
-    StringBuilder sBuilder = new StringBuilder(currentChar);
-    
-    String nextChar = readNextChar();
-    
-    if(currentChar.equals("/") && nextChar.equals("/"))
-      return buildCommentToken(currentChar+nextChar);
-    
-    while(nextChar!=null){ //null indicates the file ended
-      if(LexicalRegexPatterns.OpSymbolPattern.matcher(nextChar).matches()){
-        sBuilder.append(nextChar);
-        nextChar = readNextChar();
-      }
-      else{
-        extraCharRead = nextChar;
-        break;
-      }
-    }
-    
-    opSymbolToken.setValue(sBuilder.toString());
-    
-    return opSymbolToken;
+    TokenType type = scanToken();
+    if(type==null)
+      stream.add(TokenStream.INVALID, tokenOffset, 0, tokenLineNumber, SymbolTable.NONE);
+    else if(type!=TokenType.DELETE)
+      stream.add(type.ordinal(), tokenOffset, tokenLength, tokenLineNumber, tokenSymbol);
+    else
+      return false;
+    return true;
   }
 
+  boolean isAtEnd(){
+    return position>=inputLength;
+  }
 
-  private Token buildStringToken(String currentChar){
+  private TokenType scanToken(){
     /*
-     * The `buildStringToken()` method is responsible for building the string token.
-     * String -> '''' ('\' 't' | '\' 'n' | '\' '\' | '\' '''' |'(' | ')' | ';' | ',' |'' |Letter | Digit | Operator_symbol )* ''''
-     * currentChar is the character currently being processed.
-     * It should return the token that was built.
+     * Runs the state machine from position to the end of the next token. It sets tokenOffset,
+     * tokenLength, tokenSymbol and tokenLineNumber, and returns the token's type, or null for
+     * a character that cannot start a token and for a string still open at the end of the range.
      */
-    Token stringToken = new Token();
-    stringToken.setType(TokenType.STRING);
-    stringToken.setSourceLineNumber(sourceLineNumber);
-    StringBuilder sBuilder = new StringBuilder("");
-    String nextChar = readNextChar();
-    while(nextChar!=null){ //null indicates the file ended
-      if(nextChar.equals("\'")){ //we just used up the last char we read, hence no need to set extraCharRead
-        //sBuilder.append(nextChar);
-        stringToken.setValue(sBuilder.toString());
-        
-        return stringToken;
-      }
-      else if(LexicalRegexPatterns.StringPattern.matcher(nextChar).matches()){ //match Letter | Digit | Operator_symbol
-        sBuilder.append(nextChar);
-        nextChar = readNextChar();
-      }
+    int start = position;
+    int state = LexicalStateTable.START;
+    tokenLineNumber = 0;
+    if(resumedStringOffset>=0){
+      start = resumedStringOffset;
+      state = LexicalStateTable.STRING;
+      tokenLineNumber = resumedStringLineNumber;
+      resumedStringOffset = -1;
     }
-    
-    return null; 
-  }
-  
-  private Token buildSpaceToken(String currentChar){
-    /*
-     * The `buildSpaceToken()` method is responsible for building the space token.
-     * It reads consecutive space characters until a non-space character is encountered.
-     * currentChar is the character currently being processed.
-     * It should return the token that was built.
-     */
-    Token deleteToken = new Token();
-    deleteToken.setType(TokenType.DELETE);
-    deleteToken.setSourceLineNumber(sourceLineNumber);
-    StringBuilder sBuilder = new StringBuilder(currentChar);
-    
-    String nextChar = readNextChar();
-    while(nextChar!=null){ //null indicates the file ended
-      if(LexicalRegexPatterns.SpacePattern.matcher(nextChar).matches()){
-        sBuilder.append(nextChar);
-        nextChar = readNextChar();
-      }
-      else{
-        extraCharRead = nextChar;
+    while(position<inputLength){
+      int c = input.get(position)&0xFF;
+      int nextState = LexicalStateTable.nextState(state, c);
+      if(nextState==LexicalStateTable.STOP)
+        break;
+      position++;
+      if(c=='\n')
+        sourceLineNumber++; //increment line number if we read a new line
+      if(state==LexicalStateTable.START)
+        tokenLineNumber = sourceLineNumber; //a token's line is the line after its first character was read
+      state = nextState;
+      if(state==LexicalStateTable.INVALID){
+        skipContinuationBytes(); //a non-ASCII character is one invalid token, however many bytes it takes
         break;
       }
     }
-    
-    deleteToken.setValue(sBuilder.toString());
-    //System.out.println("Space token: "+deleteToken);
-    return deleteToken;
-  }
-  
-  private Token buildCommentToken(String currentChar){
-    /*
-     * The `buildCommentToken()` method is responsible for building the comment token.
-     * It reads consecutive comment characters until a new line character is encountered.
-     * currentChar is the character currently being processed.
-     * It should return the token that was built.
-     */
-    Token commentToken = new Token();
-    commentToken.setType(TokenType.DELETE);
-    commentToken.setSourceLineNumber(sourceLineNumber);
-    StringBuilder sBuilder = new StringBuilder(currentChar);
-    
-    String nextChar = readNextChar();
-    while(nextChar!=null){ //null indicates the file ended
-      if(LexicalRegexPatterns.CommentPattern.matcher(nextChar).matches()){
-        sBuilder.append(nextChar);
-        nextChar = readNextChar();
-      }
-      else if(nextChar.equals("\n"))
-        break;
+
+    tokenOffset = start;
+    tokenLength = position-start;
+    tokenSymbol = SymbolTable.NONE;
+    switch(state){
+      case LexicalStateTable.IDENTIFIER: //Identifier -> Letter (Letter | Digit | '_')*
+        tokenSymbol = SymbolTable.keyword(input, start, tokenLength);
+        if(tokenSymbol!=SymbolTable.NONE)
+          return TokenType.KEYWORD;
+        tokenSymbol = SymbolTable.intern(input, start, tokenLength);
+        return TokenType.IDENTIFIER;
+      case LexicalStateTable.INTEGER: //Integer -> Digit+
+        return TokenType.INTEGER;
+      case LexicalStateTable.OPERATOR: //Operator_symbol -> Operator_symbol+
+      case LexicalStateTable.SLASH:
+        tokenSymbol = SymbolTable.intern(input, start, tokenLength);
+        return TokenType.OPERATOR;
+      case LexicalStateTable.STRING_END: //the quotes are not part of the value
+        tokenOffset = start+1;
+        tokenLength -= 2;
+        return TokenType.STRING;
+      case LexicalStateTable.SPACE:
+      case LexicalStateTable.COMMENT:
+        return TokenType.DELETE;
+      case LexicalStateTable.COMMENT_END: //the newline ending the comment is not part of the value
+        tokenLength--;
+        return TokenType.DELETE;
+      case LexicalStateTable.L_PAREN:
+        return TokenType.L_PAREN;
+      case LexicalStateTable.R_PAREN:
+        return TokenType.R_PAREN;
+      case LexicalStateTable.SEMICOLON:
+        return TokenType.SEMICOLON;
+      case LexicalStateTable.COMMA:
+        return TokenType.COMMA;
+      case LexicalStateTable.STRING: //still open at the end of the range
+        openStringOffset = start;
+        openStringLineNumber = tokenLineNumber;
+        return null;
+      default: //INVALID
+        return null;
     }
-    
-    commentToken.setValue(sBuilder.toString());
-    //System.out.println("Comment token: "+commentToken.getValue());
-    return commentToken;
   }
 
-  private Token buildPunctuationPattern(String currentChar){
-    /*
-     * The `buildPunctuationPattern()` method is responsible for building the punctuation token.
-     * It reads consecutive punctuation characters until a non-punctuation character is encountered.
-     * currentChar is the character currently being processed.
-     * It should return the token that was built.
-     */
-    Token punctuationToken = new Token();
-    punctuationToken.setSourceLineNumber(sourceLineNumber);
-    punctuationToken.setValue(currentChar);
-    if(currentChar.equals("("))
-      punctuationToken.setType(TokenType.L_PAREN);
-    else if(currentChar.equals(")"))
-      punctuationToken.setType(TokenType.R_PAREN);
-    else if(currentChar.equals(";"))
-      punctuationToken.setType(TokenType.SEMICOLON);
-    else if(currentChar.equals(","))
-      punctuationToken.setType(TokenType.COMMA);
-    //System.out.println("Punctuation token: "+punctuationToken.getValue());
-    return punctuationToken;
+  private void skipContinuationBytes(){
+    while(position<inputLength && (input.get(position)&0xC0)==0x80)
+      position++;
   }
 }
-
@@ -0,0 +1,218 @@
+package scanner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Interns identifiers, keywords and operators to int ids. Each distinct name gets its id the
+ * first time it is seen; after that, the scanner, the parser and the AST compare ids instead
+ * of strings.
+ *
+ * Ids are shared by the whole process, and the keywords and the operators the grammar refers
+ * to always get the ids defined below. {@link #NONE} (0) is never assigned, so an int field
+ * that was never set means "no symbol"; every id is positive.
+ *
+ * Names are never freed, so only names a program can have a bounded number of are interned.
+ * Integer and string literals are not: their text stays in the source buffer, and a parsed tree
+ * keeps it in its own NodePool.
+ *
+ * Lookups of names that are already interned do not lock or allocate. Inserting a new name
+ * takes the table's lock.
+ */
+public class SymbolTable{
+  public static final int NONE = 0;
+
+  //Keywords, in the order of the scanner's reserved identifiers
+  public static final int LET = 1;
+  public static final int IN = 2;
+  public static final int WITHIN = 3;
+  public static final int FN = 4;
+  public static final int WHERE = 5;
+  public static final int AUG = 6;
+  public static final int OR = 7;
+  public static final int NOT = 8;
+  public static final int GR = 9;
+  public static final int GE = 10;
+  public static final int LS = 11;
+  public static final int LE = 12;
+  public static final int EQ = 13;
+  public static final int NE = 14;
+  public static final int TRUE = 15;
+  public static final int FALSE = 16;
+  public static final int NIL = 17;
+  public static final int DUMMY = 18;
+  public static final int REC = 19;
+  public static final int AND = 20;
+
+  //Operators the grammar refers to
+  public static final int COMMA = 21;
+  public static final int DOT = 22;
+  public static final int ARROW = 23;
+  public static final int BAR = 24;
+  public static final int AMPERSAND = 25;
+  public static final int GREATER = 26;
+  public static final int GREATER_EQUAL = 27;
+  public static final int LESS = 28;
+  public static final int LESS_EQUAL = 29;
+  public static final int PLUS = 30;
+  public static final int MINUS = 31;
+  public static final int TIMES = 32;
+  public static final int DIVIDE = 33;
+  public static final int POWER = 34;
+  public static final int AT = 35;
+  public static final int EQUAL = 36;
+
+  private static final String[] predefinedNames = {"let","in","within","fn","where","aug","or","not","gr","ge",
+                                                   "ls","le","eq","ne","true","false","nil","dummy","rec","and",
+                                                   ",",".","->","|","&",">",">=","<","<=","+","-","*","/","**","@","="};
+  private static final int LAST_KEYWORD = AND;
+
+  /*
+   * Perfect hash of the keywords: (first char + 20*last char + length) & 63 is different for
+   * each of them. keywordTable maps a hash value to the keyword with that hash, or NONE.
+   */
+  private static final int[] keywordTable = new int[64];
+
+  private static final class Symbol{
+    final String name;
+    final int hash;
+    final int id;
+
+    Symbol(String name, int hash, int id){
+      this.name = name;
+      this.hash = hash;
+      this.id = id;
+    }
+  }
+
+  private static volatile Symbol[] table = new Symbol[1024]; //open addressing, linear probing
+  private static volatile String[] names = new String[256]; //names[id]
+  private static int size; //guarded by SymbolTable.class
+
+  static{
+    for(int i=0;i<predefinedNames.length;++i)
+      intern(predefinedNames[i]);
+    for(int keyword=LET;keyword<=LAST_KEYWORD;++keyword){
+      String name = names[keyword];
+      int hash = keywordHash(name.charAt(0), name.charAt(name.length()-1), name.length());
+      if(keywordTable[hash]!=NONE)
+        throw new IllegalStateException("keyword hash is not perfect: "+name);
+      keywordTable[hash] = keyword;
+    }
+  }
+
+  private static int keywordHash(int first, int last, int length){
+    return (first + 20*last + length)&63;
+  }
+
+  /**
+   * Returns the keyword spelled by source[offset..offset+length), or NONE if those bytes
+   * are not a keyword.
+   */
+  public static int keyword(ByteBuffer source, int offset, int length){
+    int keyword = keywordTable[keywordHash(source.get(offset), source.get(offset+length-1), length)];
+    if(keyword!=NONE && matches(names[keyword], source, offset, length))
+      return keyword;
+    return NONE;
+  }
+
+  /**
+   * Returns the id of the name spelled by the ASCII bytes source[offset..offset+length),
+   * interning it if it has not been seen before.
+   */
+  public static int intern(ByteBuffer source, int offset, int length){
+    int hash = 0;
+    for(int i=0;i<length;++i)
+      hash = 31*hash + source.get(offset+i); //same as String.hashCode() of the name
+    Symbol[] symbols = table;
+    int mask = symbols.length-1;
+    for(int slot = hash&mask;symbols[slot]!=null;slot = (slot+1)&mask){
+      Symbol symbol = symbols[slot];
+      if(symbol.hash==hash && matches(symbol.name, source, offset, length))
+        return symbol.id;
+    }
+    byte[] bytes = new byte[length];
+    for(int i=0;i<length;++i)
+      bytes[i] = source.get(offset+i);
+    return insert(new String(bytes, StandardCharsets.US_ASCII), hash);
+  }
+
+  /**
+   * Returns the id of the given name, interning it if it has not been seen before.
+   */
+  public static int intern(String name){
+    int hash = name.hashCode();
+    Symbol[] symbols = table;
+    int mask = symbols.length-1;
+    for(int slot = hash&mask;symbols[slot]!=null;slot = (slot+1)&mask){
+      Symbol symbol = symbols[slot];
+      if(symbol.hash==hash && symbol.name.equals(name))
+        return symbol.id;
+    }
+    return insert(name, hash);
+  }
+
+  /**
+   * Returns the name interned as the given id.
+   */
+  public static String name(int id){
+    String[] currentNames = names;
+    if(id<currentNames.length && currentNames[id]!=null)
+      return currentNames[id];
+    synchronized(SymbolTable.class){ //interned by another thread that has not published the name to us yet
+      return names[id];
+    }
+  }
+
+  private static synchronized int insert(String name, int hash){
+    //another thread may have inserted the name since our lock-free lookup failed
+    Symbol[] symbols = table;
+    int mask = symbols.length-1;
+    int slot = hash&mask;
+    for(;symbols[slot]!=null;slot = (slot+1)&mask){
+      if(symbols[slot].hash==hash && symbols[slot].name.equals(name))
+        return symbols[slot].id;
+    }
+
+    int id = ++size;
+    if(id>=names.length){
+      String[] newNames = new String[names.length*2];
+      System.arraycopy(names, 0, newNames, 0, names.length);
+      newNames[id] = name;
+      names = newNames;
+    }
+    else
+      names[id] = name;
+
+    if(2*size>symbols.length){ //keep the load factor at 1/2 so probe sequences stay short
+      Symbol[] newSymbols = new Symbol[symbols.length*2];
+      int newMask = newSymbols.length-1;
+      for(Symbol symbol: symbols){
+        if(symbol==null)
+          continue;
+        int newSlot = symbol.hash&newMask;
+        while(newSymbols[newSlot]!=null)
+          newSlot = (newSlot+1)&newMask;
+        newSymbols[newSlot] = symbol;
+      }
+      slot = hash&newMask;
+      while(newSymbols[slot]!=null)
+        slot = (slot+1)&newMask;
+      newSymbols[slot] = new Symbol(name, hash, id);
+      table = newSymbols;
+    }
+    else
+      symbols[slot] = new Symbol(name, hash, id);
+    return id;
+  }
+
+  private static boolean matches(String name, ByteBuffer source, int offset, int length){
+    if(name.length()!=length)
+      return false;
+    for(int i=0;i<length;++i){
+      if(name.charAt(i)!=source.get(offset+i))
+        return false;
+    }
+    return true;
+  }
+}
@@ -1,13 +1,23 @@
 package scanner;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public class Token{
   /*
   * The `Token` class represents units of information from the scanner to the parser.
-  * Each token has a "type" and a "value." 
+  * Each token has a "type" and a "value."
   * Some tokens have meaningful values, while others (e.g., "DELETE," "L_PAREN") have unimportant or empty values.
+  * A token built by the scanner only records where its text lies in the source buffer. The text is
+  * decoded into a String the first time getValue() is called, so tokens nobody looks at (e.g. DELETE)
+  * never allocate one.
    */
   private TokenType type;
   private String value;
+  private ByteBuffer source; //buffer holding the token's text, if value has not been decoded yet
+  private int sourceOffset;
+  private int sourceLength;
+  private int symbol; //SymbolTable id of an identifier, keyword or operator; SymbolTable.NONE otherwise
   private int sourceLineNumber;
   public TokenType getType() {
     return type;
@@ -16,10 +26,35 @@ public class Token{
     this.type = type;
   }
   public String getValue() {
+    if(value==null && source!=null){
+      byte[] bytes = new byte[sourceLength];
+      ByteBuffer text = source.duplicate();
+      text.position(sourceOffset);
+      text.get(bytes);
+      value = new String(bytes, StandardCharsets.UTF_8);
+      source = null;
+    }
     return value;
   }
   public void setValue(String value) {
     this.value = value;
+    this.source = null;
+  }
+  /**
+   * Sets the value of this token to the bytes source[offset..offset+length), decoded as UTF-8
+   * when the value is first needed.
+   */
+  public void setValue(ByteBuffer source, int offset, int length) {
+    this.value = null;
+    this.source = source;
+    this.sourceOffset = offset;
+    this.sourceLength = length;
+  }
+  public int getSymbol() {
+    return symbol;
+  }
+  public void setSymbol(int symbol) {
+    this.symbol = symbol;
   }
   public int getSourceLineNumber() {
     return sourceLineNumber;
@@ -27,6 +62,6 @@ public class Token{
   public void setSourceLineNumber(int sourceLineNumber) {
     this.sourceLineNumber = sourceLineNumber;
   }
-  
+
 
 }
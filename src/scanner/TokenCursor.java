@@ -0,0 +1,71 @@
+package scanner;
+
+/**
+ * Walks a {@link TokenStream} one token at a time. The cursor starts before the first token;
+ * {@link #advance()} moves it to the next one.
+ *
+ * When the cursor is past the last token, or on an INVALID entry, there is no current token:
+ * {@link #isNull()} returns true and getType() returns null. This matches what the parser saw
+ * when it read Token objects from the scanner one by one.
+ */
+public class TokenCursor{
+  private final TokenStream stream;
+  private int index;
+
+  public TokenCursor(TokenStream stream){
+    this.stream = stream;
+    this.index = -1;
+  }
+
+  public TokenStream getStream(){
+    return stream;
+  }
+
+  public int getIndex(){
+    return index;
+  }
+
+  public void setIndex(int index){
+    this.index = index;
+  }
+
+  public void advance(){
+    if(index<stream.size())
+      index++;
+  }
+
+  public boolean isNull(){
+    return index<0 || index>=stream.size() || stream.getKind(index)==TokenStream.INVALID;
+  }
+
+  public TokenType getType(){
+    if(index<0 || index>=stream.size())
+      return null;
+    return stream.getType(index);
+  }
+
+  public int getSymbol(){
+    if(index<0 || index>=stream.size())
+      return SymbolTable.NONE;
+    return stream.getSymbol(index);
+  }
+
+  public String getValue(){
+    return stream.getValue(index);
+  }
+
+  public int getSourceLineNumber(){
+    return stream.getSourceLineNumber(index);
+  }
+
+  /**
+   * Returns the type of the token k positions ahead of the current one (peekType(0) is the
+   * current token's type), or null if there is no such token.
+   */
+  public TokenType peekType(int k){
+    int i = index+k;
+    if(i<0 || i>=stream.size())
+      return null;
+    return stream.getType(i);
+  }
+}
@@ -0,0 +1,111 @@
+package scanner;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The token stream of a source file after an edit, made by rescanning only the part of the
+ * file the edit can change.
+ *
+ * Scanning restarts at the end of the last token that ends before the edit: the scanner is
+ * between tokens there, so it is in its start state whatever the text around it. It stops as
+ * soon as it starts a token, past the edited bytes, at the same place an old token started.
+ * From there on the bytes are the same as before the edit, so the scanner would find the same
+ * tokens again; they are copied from the old stream with their offsets and line numbers moved.
+ *
+ * Entries [firstToken..oldEndToken) of the old stream are replaced by entries
+ * [firstToken..newEndToken) of the new one. Entries before firstToken are unchanged, and the
+ * entries after them are the old ones, lineDelta lines further down.
+ */
+public class TokenEdit{
+  private final TokenStream tokens;
+  private final int firstToken;
+  private final int oldEndToken;
+  private final int newEndToken;
+  private final int lineDelta;
+
+  private TokenEdit(TokenStream tokens, int firstToken, int oldEndToken, int newEndToken, int lineDelta){
+    this.tokens = tokens;
+    this.firstToken = firstToken;
+    this.oldEndToken = oldEndToken;
+    this.newEndToken = newEndToken;
+    this.lineDelta = lineDelta;
+  }
+
+  /**
+   * Rescans newSource, which is the source of oldTokens with removedLength bytes at offset
+   * replaced by insertedLength bytes.
+   */
+  public static TokenEdit apply(TokenStream oldTokens, ByteBuffer newSource, int offset, int removedLength, int insertedLength){
+    //find the last token that ends before the edit
+    int low = 0;
+    int high = oldTokens.size();
+    while(low<high){ //first entry at or after offset
+      int middle = (low+high)>>>1;
+      if(oldTokens.getOffset(middle)<offset)
+        low = middle+1;
+      else
+        high = middle;
+    }
+    int last = low-1;
+    while(last>=0 && (oldTokens.getKind(last)==TokenStream.INVALID || oldTokens.getEnd(last)>=offset))
+      last--;
+
+    int restartOffset = 0;
+    int restartLineNumber = 1;
+    if(last>=0){
+      restartOffset = oldTokens.getEnd(last);
+      restartLineNumber = oldTokens.getSourceLineNumber(last);
+      for(int i=oldTokens.getStart(last);i<restartOffset;++i){ //only strings span lines
+        if(newSource.get(i)=='\n')
+          restartLineNumber++;
+      }
+    }
+
+    int firstToken = last+1;
+    TokenStream tokens = new TokenStream(newSource, oldTokens.size()+16);
+    tokens.append(oldTokens, 0, firstToken, 0, 0);
+
+    int newEditEnd = offset+insertedLength;
+    int offsetDelta = insertedLength-removedLength;
+    int next = firstToken; //first old token that may start where the rescan is
+    Scanner scanner = new Scanner(newSource, restartOffset, newSource.limit(), restartLineNumber);
+    while(!scanner.isAtEnd()){
+      if(!scanner.scanInto(tokens))
+        continue;
+      int index = tokens.size()-1;
+      int start = tokens.getStart(index);
+      if(start<newEditEnd)
+        continue;
+      int oldStart = start-offsetDelta;
+      while(next<oldTokens.size() && oldTokens.getStart(next)<oldStart)
+        next++;
+      if(next<oldTokens.size() && oldTokens.getStart(next)==oldStart && oldTokens.getKind(next)==tokens.getKind(index)){
+        int lineDelta = tokens.getSourceLineNumber(index)-oldTokens.getSourceLineNumber(next);
+        tokens.truncate(index);
+        tokens.append(oldTokens, next, oldTokens.size(), lineDelta, offsetDelta);
+        return new TokenEdit(tokens, firstToken, next, index, lineDelta);
+      }
+    }
+    return new TokenEdit(tokens, firstToken, oldTokens.size(), tokens.size(), 0);
+  }
+
+  public TokenStream getTokens(){
+    return tokens;
+  }
+
+  public int getFirstToken(){
+    return firstToken;
+  }
+
+  public int getOldEndToken(){
+    return oldEndToken;
+  }
+
+  public int getNewEndToken(){
+    return newEndToken;
+  }
+
+  public int getLineDelta(){
+    return lineDelta;
+  }
+}
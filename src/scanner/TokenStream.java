@@ -0,0 +1,157 @@
+package scanner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * All the tokens of a source file, packed into parallel int arrays (one entry per token)
+ * instead of one Token object per lexeme. Whitespace and comments are dropped while the
+ * file is scanned, so every entry is a token the parser consumes.
+ *
+ * An entry of kind {@link #INVALID} marks a place where {@link Scanner#readNextToken()} would
+ * have returned null in the middle of the file. Token text stays in the source buffer and is
+ * only turned into a String by {@link #getValue(int)}.
+ *
+ * Use a {@link TokenCursor} to walk the stream.
+ */
+public class TokenStream{
+  public static final int INVALID = -1; //kind of an entry that stands for an unrecognized character
+
+  private static final TokenType[] tokenTypes = TokenType.values();
+
+  private final ByteBuffer source;
+  private int[] kinds; //TokenType ordinal, or INVALID
+  private int[] offsets; //offset of the token's text in source
+  private int[] lengths; //length of the token's text in source
+  private int[] lines; //source line number
+  private int[] symbols; //SymbolTable id, or SymbolTable.NONE
+  private int size;
+
+  TokenStream(ByteBuffer source, int capacity){
+    this.source = source;
+    capacity = Math.max(capacity, 16);
+    kinds = new int[capacity];
+    offsets = new int[capacity];
+    lengths = new int[capacity];
+    lines = new int[capacity];
+    symbols = new int[capacity];
+  }
+
+  void add(int kind, int offset, int length, int line, int symbol){
+    if(size==kinds.length){
+      int capacity = size*2;
+      kinds = Arrays.copyOf(kinds, capacity);
+      offsets = Arrays.copyOf(offsets, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+      lines = Arrays.copyOf(lines, capacity);
+      symbols = Arrays.copyOf(symbols, capacity);
+    }
+    kinds[size] = kind;
+    offsets[size] = offset;
+    lengths[size] = length;
+    lines[size] = line;
+    symbols[size] = symbol;
+    size++;
+  }
+
+  /**
+   * Appends entries [from..to) of another stream, adding lineOffset to their line numbers and
+   * offsetDelta to their offsets.
+   */
+  void append(TokenStream other, int from, int to, int lineOffset, int offsetDelta){
+    int count = to-from;
+    if(size+count>kinds.length){
+      int capacity = Math.max(size+count, size*2);
+      kinds = Arrays.copyOf(kinds, capacity);
+      offsets = Arrays.copyOf(offsets, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+      lines = Arrays.copyOf(lines, capacity);
+      symbols = Arrays.copyOf(symbols, capacity);
+    }
+    System.arraycopy(other.kinds, from, kinds, size, count);
+    System.arraycopy(other.offsets, from, offsets, size, count);
+    System.arraycopy(other.lengths, from, lengths, size, count);
+    System.arraycopy(other.lines, from, lines, size, count);
+    System.arraycopy(other.symbols, from, symbols, size, count);
+    if(offsetDelta!=0){
+      for(int i=size;i<size+count;++i)
+        offsets[i] += offsetDelta;
+    }
+    if(lineOffset!=0){
+      for(int i=size;i<size+count;++i)
+        lines[i] += lineOffset;
+    }
+    size += count;
+  }
+
+  void truncate(int size){
+    this.size = size;
+  }
+
+  /**
+   * Returns the offset of the first byte the scanner read for the entry at index. This is the
+   * opening quote of a string, which is not part of the string's value.
+   */
+  int getStart(int index){
+    return kinds[index]==TokenType.STRING.ordinal()?offsets[index]-1:offsets[index];
+  }
+
+  /**
+   * Returns the offset just past the last byte the scanner read for the token at index. Not
+   * meaningful for INVALID entries.
+   */
+  int getEnd(int index){
+    return kinds[index]==TokenType.STRING.ordinal()?offsets[index]+lengths[index]+1:offsets[index]+lengths[index];
+  }
+
+  public int size(){
+    return size;
+  }
+
+  public ByteBuffer getSource(){
+    return source;
+  }
+
+  public int getKind(int index){
+    return kinds[index];
+  }
+
+  /**
+   * Returns the type of the token at index, or null for an INVALID entry.
+   */
+  public TokenType getType(int index){
+    int kind = kinds[index];
+    return kind==INVALID?null:tokenTypes[kind];
+  }
+
+  public int getSymbol(int index){
+    return symbols[index];
+  }
+
+  public int getOffset(int index){
+    return offsets[index];
+  }
+
+  public int getLength(int index){
+    return lengths[index];
+  }
+
+  public int getSourceLineNumber(int index){
+    return lines[index];
+  }
+
+  /**
+   * Returns the text of the token at index. Symbols return their interned name; other tokens
+   * are decoded from the source buffer on every call.
+   */
+  public String getValue(int index){
+    if(symbols[index]!=SymbolTable.NONE)
+      return SymbolTable.name(symbols[index]);
+    byte[] bytes = new byte[lengths[index]];
+    ByteBuffer text = source.duplicate();
+    text.position(offsets[index]);
+    text.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}